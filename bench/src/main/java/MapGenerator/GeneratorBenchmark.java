@@ -0,0 +1,236 @@
+package MapGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Бенчмарки этапов генерации. Каждый этап измеряется отдельно на одних и тех
+ * же входных данных: генератор с фиксированным зерном доводится до нужного
+ * этапа в @Setup, а измеряется только сам этап. Этапы, которые меняют
+ * состояние генератора, получают свежие данные перед каждым вызовом.
+ *
+ * @author K1ta
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GeneratorBenchmark {
+
+    static final long SEED = 42;
+    static final int MIN_SIZE = 5;
+    static final int MAX_SIZE = 15;
+
+    /**
+     * Параметры карты, общие для всех состояний
+     */
+    @State(Scope.Benchmark)
+    public static class Size {
+
+        @Param({"100", "1000", "10000", "100000"})
+        public int rooms;
+
+        @Param({"CLASSIC", "PARALLEL", "FAST"})
+        public SeparationMode separation;
+
+        MapGenerator generator() {
+            MapGenerator generator = new MapGenerator(SEED, rooms, MIN_SIZE, MAX_SIZE);
+            generator.setSeparationMode(separation);
+            return generator;
+        }
+    }
+
+    /**
+     * Только что сгенерированные, еще не разделенные комнаты
+     */
+    @State(Scope.Thread)
+    public static class Generated {
+
+        MapGenerator generator;
+
+        @Setup(Level.Invocation)
+        public void setup(Size size) {
+            generator = size.generator();
+            generator.generateRooms();
+        }
+    }
+
+    /**
+     * Разделенные комнаты; триангуляция не меняет комнаты, поэтому они
+     * готовятся один раз
+     */
+    @State(Scope.Thread)
+    public static class Separated {
+
+        MapGenerator generator;
+
+        @Setup(Level.Trial)
+        public void setup(Size size) {
+            generator = size.generator();
+            generator.generateRooms();
+            generator.separateRooms();
+        }
+    }
+
+    /**
+     * Триангуляция, которая заново строится перед каждым вызовом, потому что
+     * построение дерева заменяет список ребер
+     */
+    @State(Scope.Thread)
+    public static class Triangulated {
+
+        MapGenerator generator;
+
+        @Setup(Level.Trial)
+        public void setup(Size size) {
+            generator = size.generator();
+            generator.generateRooms();
+            generator.separateRooms();
+        }
+
+        @Setup(Level.Invocation)
+        public void triangulate() {
+            generator.createTriangulation();
+        }
+    }
+
+    /**
+     * Комнаты и коридоры до создания карты. createMap() сдвигает комнаты,
+     * поэтому их позиции восстанавливаются перед каждым вызовом.
+     */
+    @State(Scope.Thread)
+    public static class Connected {
+
+        MapGenerator generator;
+        double[] x;
+        double[] y;
+
+        @Setup(Level.Trial)
+        public void setup(Size size) {
+            generator = size.generator();
+            generator.generateRooms();
+            generator.separateRooms();
+            generator.createTriangulation();
+            generator.generateCorridors();
+            RoomStore rooms = generator.getRooms();
+            x = Arrays.copyOf(rooms.x, rooms.size());
+            y = Arrays.copyOf(rooms.y, rooms.size());
+        }
+
+        @Setup(Level.Invocation)
+        public void restore() {
+            RoomStore rooms = generator.getRooms();
+            System.arraycopy(x, 0, rooms.x, 0, x.length);
+            System.arraycopy(y, 0, rooms.y, 0, y.length);
+        }
+    }
+
+    /**
+     * Созданная пустая карта; заполнение карты только выставляет биты, поэтому
+     * его можно повторять на одной и той же карте
+     */
+    @State(Scope.Thread)
+    public static class Mapped {
+
+        MapGenerator generator;
+
+        @Setup(Level.Trial)
+        public void setup(Size size) {
+            generator = size.generator();
+            generator.generateRooms();
+            generator.separateRooms();
+            generator.createTriangulation();
+            generator.generateCorridors();
+            generator.createMap();
+        }
+    }
+
+    /**
+     * Готовая карта для вывода
+     */
+    @State(Scope.Thread)
+    public static class Finished {
+
+        Grid grid;
+        OutputStream sink = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+
+        @Setup(Level.Trial)
+        public void setup(Size size) {
+            MapGenerator generator = size.generator();
+            generator.generateMap();
+            grid = generator.getGrid();
+        }
+    }
+
+    @Benchmark
+    public MapGenerator separateRooms(Generated state) {
+        state.generator.separateRooms();
+        return state.generator;
+    }
+
+    @Benchmark
+    public MapGenerator createTriangulation(Separated state) {
+        state.generator.createTriangulation();
+        return state.generator;
+    }
+
+    @Benchmark
+    public MapGenerator generateCorridors(Triangulated state) {
+        state.generator.generateCorridors();
+        return state.generator;
+    }
+
+    @Benchmark
+    public MapGenerator createMap(Connected state) {
+        state.generator.createMap();
+        return state.generator;
+    }
+
+    @Benchmark
+    public MapGenerator createCorridors(Mapped state) {
+        state.generator.createCorridors();
+        return state.generator;
+    }
+
+    @Benchmark
+    public MapGenerator createRooms(Mapped state) {
+        state.generator.createRooms();
+        return state.generator;
+    }
+
+    @Benchmark
+    public Grid printMap(Finished state) throws IOException {
+        new MapWriter(state.grid).write(state.sink);
+        return state.grid;
+    }
+
+    @Benchmark
+    public Grid generateMap(Size size) {
+        MapGenerator generator = size.generator();
+        generator.generateMap();
+        return generator.getGrid();
+    }
+}
@@ -0,0 +1,223 @@
+package MapGenerator;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Пакетная генерация карт на пуле потоков. Каждая карта генерируется своим
+ * экземпляром {@link MapGenerator}, поэтому карты не делят изменяемое
+ * состояние и генерируются параллельно. Одновременно в работе находится не
+ * больше window карт, чтобы медленный потребитель результатов не накапливал
+ * в памяти весь пакет.
+ *
+ * Результаты отдаются либо в порядке параметров в списке (ordered), либо в
+ * порядке готовности.
+ *
+ * @author K1ta
+ */
+public class BatchGenerator {
+
+    private final ExecutorService executor; //пул, на котором генерируются карты
+    private final int window;               //наибольшее количество карт в работе
+    private long totalMaps;                 //всего сгенерировано карт
+    private long totalWallNanos;            //суммарное время всех пакетов
+    private long totalCpuNanos;             //суммарное время генерации всех карт
+
+    /**
+     * Создает генератор на общем ForkJoinPool
+     */
+    public BatchGenerator() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param executor пул потоков, например ForkJoinPool нужного размера
+     */
+    public BatchGenerator(ExecutorService executor) {
+        this(executor, 4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param executor пул потоков, например ForkJoinPool нужного размера
+     * @param window наибольшее количество карт, которые генерируются или ждут
+     * потребителя одновременно
+     */
+    public BatchGenerator(ExecutorService executor, int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window должно быть положительным: " + window);
+        }
+        this.executor = executor;
+        this.window = window;
+    }
+
+    /**
+     * Генерирует все карты пакета и передает каждую в callback. Callback
+     * вызывается в потоке, который вызвал этот метод.
+     *
+     * @param specs параметры карт
+     * @param ordered true - отдавать карты в порядке specs; false - в порядке
+     * готовности
+     * @param callback получатель карт
+     * @return статистика пакета
+     */
+    public BatchStats generate(List<MapSpec> specs, boolean ordered, Consumer<GeneratedMap> callback) {
+        Run run = new Run(specs, ordered);
+        try {
+            while (run.hasNext()) {
+                callback.accept(run.next());
+            }
+        } finally {
+            run.close();
+        }
+        return run.stats();
+    }
+
+    /**
+     * Возвращает поток карт пакета. Карты начинают генерироваться при первом
+     * обращении к потоку. Если поток закрыть до конца, еще не начатые карты
+     * генерироваться не будут.
+     *
+     * @param specs параметры карт
+     * @param ordered true - отдавать карты в порядке specs; false - в порядке
+     * готовности
+     * @return поток карт
+     */
+    public Stream<GeneratedMap> stream(List<MapSpec> specs, boolean ordered) {
+        Run run = new Run(specs, ordered);
+        int characteristics = Spliterator.NONNULL | Spliterator.SIZED | (ordered ? Spliterator.ORDERED : 0);
+        return StreamSupport.stream(Spliterators.spliterator(run, specs.size(), characteristics), false)
+                .onClose(run::close);
+    }
+
+    /**
+     * @return статистика всех пакетов, сгенерированных этим генератором
+     */
+    public synchronized BatchStats stats() {
+        return new BatchStats(totalMaps, totalWallNanos, totalCpuNanos);
+    }
+
+    private synchronized void record(long maps, long wallNanos, long cpuNanos) {
+        totalMaps += maps;
+        totalWallNanos += wallNanos;
+        totalCpuNanos += cpuNanos;
+    }
+
+    /**
+     * Генерирует одну карту
+     */
+    private static GeneratedMap generate(int index, MapSpec spec) {
+        long start = System.nanoTime();
+        MapGenerator generator = spec.generator();
+        generator.generateMap();
+        return new GeneratedMap(index, spec, generator.getGrid(), System.nanoTime() - start);
+    }
+
+    /**
+     * Один пакет: отправляет карты в пул окном по window штук и забирает
+     * готовые
+     */
+    private class Run implements Iterator<GeneratedMap> {
+
+        private final List<MapSpec> specs;
+        private final boolean ordered;
+        private final ArrayDeque<Future<GeneratedMap>> pending = new ArrayDeque<>();
+        private final CompletionService<GeneratedMap> completed;
+        private final long start = System.nanoTime();
+        private int submitted;      //количество отправленных карт
+        private int produced;       //количество отданных карт
+        private long cpuNanos;      //суммарное время генерации отданных карт
+        private long wallNanos;     //время от начала пакета до последней карты
+        private boolean recorded;   //статистика пакета уже учтена
+        private volatile boolean closed;
+
+        Run(List<MapSpec> specs, boolean ordered) {
+            this.specs = specs;
+            this.ordered = ordered;
+            completed = new ExecutorCompletionService<>(executor);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return produced < specs.size();
+        }
+
+        @Override
+        public GeneratedMap next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            while (submitted < specs.size() && submitted - produced < window) {
+                final int index = submitted++;
+                final MapSpec spec = specs.get(index);
+                Callable<GeneratedMap> task = () -> closed ? null : generate(index, spec);
+                if (ordered) {
+                    //в упорядоченном режиме карты забираются из очереди pending,
+                    //поэтому CompletionService не нужен
+                    pending.add(executor.submit(task));
+                } else {
+                    completed.submit(task);
+                }
+            }
+            GeneratedMap map;
+            try {
+                map = ordered ? pending.poll().get() : completed.take().get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new IllegalStateException("Генерация пакета прервана", ex);
+            } catch (ExecutionException ex) {
+                close();
+                throw new IllegalStateException("Ошибка при генерации карты", ex.getCause());
+            }
+            produced++;
+            cpuNanos += map.nanos;
+            wallNanos = System.nanoTime() - start;
+            if (!hasNext()) {
+                finish();
+            }
+            return map;
+        }
+
+        /**
+         * Останавливает пакет: карты, которые еще не начали генерироваться,
+         * пропускаются
+         */
+        void close() {
+            if (!closed) {
+                closed = true;
+                for (Future<GeneratedMap> future : pending) {
+                    future.cancel(false);
+                }
+            }
+            finish();
+        }
+
+        /**
+         * Добавляет статистику пакета к статистике генератора
+         */
+        private void finish() {
+            if (!recorded) {
+                recorded = true;
+                record(produced, wallNanos, cpuNanos);
+            }
+        }
+
+        BatchStats stats() {
+            return new BatchStats(produced, wallNanos, cpuNanos);
+        }
+    }
+}
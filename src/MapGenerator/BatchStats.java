@@ -0,0 +1,38 @@
+package MapGenerator;
+
+/**
+ * Сводная статистика пакетной генерации
+ *
+ * @author K1ta
+ */
+public class BatchStats {
+
+    public final long maps;       //количество сгенерированных карт
+    public final long wallNanos;  //время от начала пакета до последней карты
+    public final long cpuNanos;   //суммарное время генерации всех карт
+
+    public BatchStats(long maps, long wallNanos, long cpuNanos) {
+        this.maps = maps;
+        this.wallNanos = wallNanos;
+        this.cpuNanos = cpuNanos;
+    }
+
+    /**
+     * @return количество карт в секунду по времени пакета
+     */
+    public double mapsPerSecond() {
+        return wallNanos == 0 ? 0 : maps * 1e9 / wallNanos;
+    }
+
+    /**
+     * @return среднее время генерации одной карты в миллисекундах
+     */
+    public double averageMillis() {
+        return maps == 0 ? 0 : cpuNanos / 1e6 / maps;
+    }
+
+    @Override
+    public String toString() {
+        return "maps:" + maps + " time:" + wallNanos / 1e6 + "ms speed:" + mapsPerSecond() + " maps/s";
+    }
+}
@@ -0,0 +1,217 @@
+package MapGenerator;
+
+/**
+ * Битовая карта подземелья. Каждая ячейка занимает один бит, ячейки строки
+ * лежат в словах long по 64 штуки, а все строки - в одном непрерывном
+ * массиве с шагом stride слов на строку. Бит j слова w строки i соответствует
+ * ячейке (i, w * 64 + j). Биты за пределами ширины карты всегда равны нулю.
+ * Карта для файла, отображенного в память, - {@link MappedBitGrid}.
+ *
+ * @author K1ta
+ */
+public class BitGrid implements Grid {
+
+    private final int rows;     //количество строк
+    private final int cols;     //количество столбцов
+    private final int stride;   //количество слов в строке
+    private final long[] words; //ячейки карты
+
+    /**
+     * Создает пустую карту (все ячейки false)
+     *
+     * @param rows количество строк
+     * @param cols количество столбцов
+     */
+    public BitGrid(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+        stride = (cols + 63) >>> 6;
+        words = new long[Math.multiplyExact(rows, stride)];
+    }
+
+    /**
+     * @return количество строк
+     */
+    @Override
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * @return количество столбцов
+     */
+    @Override
+    public int cols() {
+        return cols;
+    }
+
+    /**
+     * @return количество слов long в одной строке
+     */
+    @Override
+    public int stride() {
+        return stride;
+    }
+
+    /**
+     * @param row номер строки
+     * @param col номер столбца
+     * @return значение ячейки
+     */
+    @Override
+    public boolean get(int row, int col) {
+        check(row, col);
+        return (words[row * stride + (col >>> 6)] & (1L << col)) != 0;
+    }
+
+    /**
+     * Записывает true в ячейку
+     *
+     * @param row номер строки
+     * @param col номер столбца
+     */
+    @Override
+    public void set(int row, int col) {
+        check(row, col);
+        words[row * stride + (col >>> 6)] |= 1L << col;
+    }
+
+    /**
+     * Записывает true в ячейки строки row со столбца from (включительно) до
+     * столбца to (не включительно). Целые слова заполняются за одну операцию.
+     *
+     * @param row номер строки
+     * @param from первый столбец
+     * @param to столбец после последнего
+     */
+    @Override
+    public void fillRow(int row, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        check(row, from);
+        check(row, to - 1);
+        fill(words, row * stride, from, to);
+    }
+
+    /**
+     * Записывает false в ячейки строки row со столбца from (включительно) до
+     * столбца to (не включительно)
+     *
+     * @param row номер строки
+     * @param from первый столбец
+     * @param to столбец после последнего
+     */
+    @Override
+    public void clearRow(int row, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        check(row, from);
+        check(row, to - 1);
+        int base = row * stride;
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> (63 - ((to - 1) & 63));
+        if (first == last) {
+            words[base + first] &= ~(firstMask & lastMask);
+            return;
+        }
+        words[base + first] &= ~firstMask;
+        for (int w = first + 1; w < last; w++) {
+            words[base + w] = 0;
+        }
+        words[base + last] &= ~lastMask;
+    }
+
+    /**
+     * Записывает true в биты from..to - 1 строки, которая начинается со слова
+     * base массива words
+     *
+     * @param words массив слов
+     * @param base номер первого слова строки
+     * @param from первый бит
+     * @param to бит после последнего
+     */
+    static void fill(long[] words, int base, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> (63 - ((to - 1) & 63));
+        if (first == last) {
+            words[base + first] |= firstMask & lastMask;
+            return;
+        }
+        words[base + first] |= firstMask;
+        for (int w = first + 1; w < last; w++) {
+            words[base + w] = -1L;
+        }
+        words[base + last] |= lastMask;
+    }
+
+    /**
+     * @param row номер строки
+     * @param w номер слова в строке
+     * @return слово с ячейками w * 64 .. w * 64 + 63 строки row
+     */
+    @Override
+    public long word(int row, int w) {
+        return words[row * stride + w];
+    }
+
+    /**
+     * Заменяет слово w строки row. Биты за пределами ширины карты
+     * отбрасываются.
+     *
+     * @param row номер строки
+     * @param w номер слова в строке
+     * @param value новые ячейки w * 64 .. w * 64 + 63
+     */
+    @Override
+    public void setWord(int row, int w, long value) {
+        int tail = cols - w * 64;
+        if (tail < 64) {
+            value &= (1L << tail) - 1;
+        }
+        words[row * stride + w] = value;
+    }
+
+    /**
+     * @return количество ячеек со значением true
+     */
+    @Override
+    public long count() {
+        long count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * Копирует карту в массив boolean[][] для кода, который работает с
+     * массивом напрямую
+     *
+     * @return массив rows x cols
+     */
+    @Override
+    public boolean[][] toArray() {
+        boolean[][] map = new boolean[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                map[i][j] = (words[i * stride + (j >>> 6)] & (1L << j)) != 0;
+            }
+        }
+        return map;
+    }
+
+    private void check(int row, int col) {
+        if (row < 0 || row >= rows || col < 0 || col >= cols) {
+            throw new IndexOutOfBoundsException("(" + row + ";" + col + ")");
+        }
+    }
+}
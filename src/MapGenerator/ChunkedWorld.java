@@ -0,0 +1,327 @@
+package MapGenerator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Бесконечный мир, разбитый на квадратные чанки со стороной chunkSize клеток.
+ * Чанк (cx, cy) занимает клетки с x от cx * chunkSize до (cx + 1) * chunkSize
+ * и с y от cy * chunkSize до (cy + 1) * chunkSize; строка карты чанка - это y,
+ * столбец - x.
+ *
+ * Комнаты чанка зависят только от (worldSeed, cx, cy). Чанк делится на ячейки
+ * со стороной maxSize + 4, и каждая комната лежит внутри своей ячейки, поэтому
+ * комнаты не пересекаются ни внутри чанка, ни с комнатами соседей, и
+ * разделение комнат не нужно. Комнаты внутри чанка соединяются минимальным
+ * остовным деревом триангуляции Делоне, а соседние по стороне чанки - одним
+ * коридором между ближайшей парой их комнат. Такой коридор вычисляется
+ * одинаково из обоих чанков и не выходит за их пределы, поэтому граф коридоров
+ * всего мира связный и не зависит от порядка, в котором генерируются чанки.
+ *
+ * Чанки генерируются по запросу и хранятся в кеше на cacheSize чанков, поэтому
+ * память и время зависят только от просматриваемой области.
+ *
+ * @author K1ta
+ */
+public class ChunkedWorld {
+
+    private final long worldSeed;     //зерно мира
+    private final int chunkSize;      //сторона чанка в клетках
+    private final int roomsPerChunk;  //количество комнат в чанке
+    private final int minSize;        //минимальный размер комнаты
+    private final int maxSize;        //максимальный размер комнаты
+    private final int slot;           //сторона ячейки одной комнаты
+    private final int slots;          //количество ячеек по одной стороне чанка
+    private final LinkedHashMap<Long, BitGrid> cache; //последние сгенерированные чанки
+
+    /**
+     *
+     * @param worldSeed зерно мира
+     * @param chunkSize сторона чанка в клетках
+     * @param roomsPerChunk количество комнат в одном чанке
+     * @param minSize минимальный размер одной комнаты
+     * @param maxSize максимальный размер одной комнаты
+     * @param cacheSize сколько чанков хранить в памяти
+     */
+    public ChunkedWorld(long worldSeed, int chunkSize, int roomsPerChunk, int minSize, int maxSize, int cacheSize) {
+        if (minSize < 1 || maxSize < minSize) {
+            throw new IllegalArgumentException("Неверные размеры комнат: " + minSize + ".." + maxSize);
+        }
+        this.worldSeed = worldSeed;
+        this.chunkSize = chunkSize;
+        this.roomsPerChunk = roomsPerChunk;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        //комната и зазор в две клетки с каждой стороны, как в Room.isOverlapping()
+        slot = maxSize + 4;
+        slots = chunkSize / slot;
+        if (roomsPerChunk < 1 || roomsPerChunk > slots * slots) {
+            throw new IllegalArgumentException("В чанк " + chunkSize + "x" + chunkSize
+                    + " помещается от 1 до " + slots * slots + " комнат: " + roomsPerChunk);
+        }
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("cacheSize должно быть положительным: " + cacheSize);
+        }
+        cache = new LinkedHashMap<Long, BitGrid>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, BitGrid> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * @return сторона чанка в клетках
+     */
+    public int chunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @param cx номер чанка по X
+     * @param cy номер чанка по Y
+     * @return зерно чанка
+     */
+    public long chunkSeed(int cx, int cy) {
+        return mix(worldSeed ^ mix(((long) cx << 32) | (cy & 0xFFFFFFFFL)));
+    }
+
+    /**
+     * Возвращает карту чанка, генерируя ее при необходимости. Карта хранится в
+     * кеше, поэтому изменять ее нельзя.
+     *
+     * @param cx номер чанка по X
+     * @param cy номер чанка по Y
+     * @return карта чанка chunkSize x chunkSize
+     */
+    public synchronized BitGrid chunk(int cx, int cy) {
+        Long key = ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+        BitGrid grid = cache.get(key);
+        if (grid == null) {
+            grid = generate(cx, cy);
+            cache.put(key, grid);
+        }
+        return grid;
+    }
+
+    /**
+     * @param x координата клетки по X
+     * @param y координата клетки по Y
+     * @return true, если по клетке можно пройти
+     */
+    public boolean get(long x, long y) {
+        BitGrid grid = chunk(chunkOf(x), chunkOf(y));
+        return grid.get((int) Math.floorMod(y, (long) chunkSize), (int) Math.floorMod(x, (long) chunkSize));
+    }
+
+    /**
+     * Копирует прямоугольную область мира. Генерируются только чанки, которые
+     * пересекают область.
+     *
+     * @param x левая граница области
+     * @param y верхняя граница области
+     * @param width ширина области
+     * @param height высота области
+     * @return карта области: строка - y, столбец - x
+     */
+    public BitGrid region(long x, long y, int width, int height) {
+        BitGrid result = new BitGrid(height, width);
+        for (int cy = chunkOf(y); cy <= chunkOf(y + height - 1); cy++) {
+            for (int cx = chunkOf(x); cx <= chunkOf(x + width - 1); cx++) {
+                BitGrid grid = chunk(cx, cy);
+                long chunkX = (long) cx * chunkSize;
+                long chunkY = (long) cy * chunkSize;
+                //пересечение чанка с областью в координатах чанка
+                int fromRow = (int) Math.max(0, y - chunkY);
+                int toRow = (int) Math.min(chunkSize, y + height - chunkY);
+                int fromCol = (int) Math.max(0, x - chunkX);
+                int toCol = (int) Math.min(chunkSize, x + width - chunkX);
+                for (int row = fromRow; row < toRow; row++) {
+                    for (int col = fromCol; col < toCol; col++) {
+                        if (grid.get(row, col)) {
+                            result.set((int) (chunkY + row - y), (int) (chunkX + col - x));
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param coordinate координата клетки
+     * @return номер чанка, в котором лежит клетка
+     */
+    private int chunkOf(long coordinate) {
+        return (int) Math.floorDiv(coordinate, (long) chunkSize);
+    }
+
+    /**
+     * Генерирует карту чанка: коридоры внутри чанка, коридоры к четырем
+     * соседям и комнаты
+     */
+    private BitGrid generate(int cx, int cy) {
+        BitGrid grid = new BitGrid(chunkSize, chunkSize);
+        Rooms own = rooms(cx, cy);
+        EdgeList tree = tree(own);
+        for (int k = 0; k < tree.size(); k++) {
+            int a = tree.from(k);
+            int b = tree.to(k);
+            corridor(grid, own.centerX(a), own.centerY(a), own.centerX(b), own.centerY(b));
+        }
+        //коридор всегда идет от западного или северного чанка пары к
+        //восточному или южному
+        link(grid, own, 0, 0, rooms(cx + 1, cy), chunkSize, 0);
+        link(grid, own, 0, 0, rooms(cx, cy + 1), 0, chunkSize);
+        link(grid, rooms(cx - 1, cy), -chunkSize, 0, own, 0, 0);
+        link(grid, rooms(cx, cy - 1), 0, -chunkSize, own, 0, 0);
+        for (int i = 0; i < own.count; i++) {
+            for (int row = own.y[i]; row < own.y[i] + own.h[i]; row++) {
+                grid.fillRow(row, own.x[i], own.x[i] + own.w[i]);
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Генерирует комнаты чанка. Каждая комната занимает случайную свободную
+     * ячейку и лежит в ней со случайным отступом.
+     */
+    private Rooms rooms(int cx, int cy) {
+        SplittableRandom random = new SplittableRandom(chunkSeed(cx, cy));
+        int total = slots * slots;
+        int[] order = new int[total];
+        for (int i = 0; i < total; i++) {
+            order[i] = i;
+        }
+        Rooms rooms = new Rooms(roomsPerChunk);
+        for (int i = 0; i < roomsPerChunk; i++) {
+            //частичное перемешивание: первые roomsPerChunk ячеек случайны
+            int k = i + random.nextInt(total - i);
+            int cell = order[k];
+            order[k] = order[i];
+            order[i] = cell;
+            int w = minSize + random.nextInt(maxSize - minSize + 1);
+            int h = minSize + random.nextInt(maxSize - minSize + 1);
+            //отступ от 2 до slot - size - 2
+            rooms.x[i] = (cell % slots) * slot + 2 + random.nextInt(slot - w - 3);
+            rooms.y[i] = (cell / slots) * slot + 2 + random.nextInt(slot - h - 3);
+            rooms.w[i] = w;
+            rooms.h[i] = h;
+        }
+        return rooms;
+    }
+
+    /**
+     * Строит минимальное остовное дерево триангуляции Делоне комнат чанка
+     */
+    private EdgeList tree(Rooms rooms) {
+        int n = rooms.count;
+        EdgeList tree = new EdgeList(n);
+        if (n < 2) {
+            return tree;
+        }
+        double[] px = new double[n];
+        double[] py = new double[n];
+        for (int i = 0; i < n; i++) {
+            px[i] = rooms.centerX(i);
+            py[i] = rooms.centerY(i);
+        }
+        Triangulation triangulation = new Triangulation(px, py, 0, 0, chunkSize, chunkSize);
+        triangulation.build();
+        EdgeList edges = triangulation.edges();
+        edges.sortByCost();
+        DisjointSet connected = new DisjointSet(n);
+        for (int i = 0; i < edges.size() && tree.size() < n - 1; i++) {
+            if (connected.union(edges.from(i), edges.to(i))) {
+                tree.add(edges.from(i), edges.to(i), edges.cost(i));
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Соединяет коридором ближайшую пару комнат двух соседних чанков. Комнаты
+     * сдвигаются в систему координат рисуемого чанка на (ax, ay) и (bx, by).
+     * Пара выбирается только по взаимному расположению комнат, поэтому оба
+     * чанка находят одну и ту же пару.
+     */
+    private void link(BitGrid grid, Rooms a, int ax, int ay, Rooms b, int bx, int by) {
+        int bestA = 0;
+        int bestB = 0;
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < a.count; i++) {
+            for (int j = 0; j < b.count; j++) {
+                long dx = (b.centerX(j) + bx) - (a.centerX(i) + ax);
+                long dy = (b.centerY(j) + by) - (a.centerY(i) + ay);
+                long distance = dx * dx + dy * dy;
+                if (distance < best) {
+                    best = distance;
+                    bestA = i;
+                    bestB = j;
+                }
+            }
+        }
+        corridor(grid, a.centerX(bestA) + ax, a.centerY(bestA) + ay, b.centerX(bestB) + bx, b.centerY(bestB) + by);
+    }
+
+    /**
+     * Рисует коридор из двух отрезков: по строке y1 от x1 до x2 и по столбцу
+     * x2 от y1 до y2. Части коридора вне чанка отбрасываются.
+     */
+    private void corridor(BitGrid grid, int x1, int y1, int x2, int y2) {
+        if (y1 >= 0 && y1 < chunkSize) {
+            int from = Math.max(0, Math.min(x1, x2));
+            int to = Math.min(chunkSize, Math.max(x1, x2) + 1);
+            if (from < to) {
+                grid.fillRow(y1, from, to);
+            }
+        }
+        if (x2 >= 0 && x2 < chunkSize) {
+            int from = Math.max(0, Math.min(y1, y2));
+            int to = Math.min(chunkSize - 1, Math.max(y1, y2));
+            for (int row = from; row <= to; row++) {
+                grid.set(row, x2);
+            }
+        }
+    }
+
+    /**
+     * SplitMix64: перемешивает биты, чтобы зерна соседних чанков не были
+     * похожи
+     */
+    private static long mix(long z) {
+        z = (z + 0x9E3779B97F4A7C15L) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Комнаты одного чанка: левый верхний угол и размер в координатах чанка
+     */
+    private static class Rooms {
+
+        final int count;
+        final int[] x;
+        final int[] y;
+        final int[] w;
+        final int[] h;
+
+        Rooms(int count) {
+            this.count = count;
+            x = new int[count];
+            y = new int[count];
+            w = new int[count];
+            h = new int[count];
+        }
+
+        int centerX(int i) {
+            return x[i] + w[i] / 2;
+        }
+
+        int centerY(int i) {
+            return y[i] + h[i] / 2;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package MapGenerator;
+
+/**
+ * Способ построения коридоров в {@link MapGenerator#createCorridors()}
+ *
+ * @author K1ta
+ */
+public enum CorridorMode {
+    /**
+     * Исходный способ: коридор буквой L из горизонтального и вертикального
+     * отрезков между центрами комнат, напрямую через все, что лежит между
+     * ними
+     */
+    STRAIGHT,
+    /**
+     * Коридор прокладывается поиском A* по клеткам карты с ценой клетки:
+     * уже построенные коридоры дешевле пустых клеток, а чужие комнаты
+     * намного дороже. Коридоры обходят комнаты и сливаются в общие
+     * проходы. См. {@link CorridorRouter}.
+     */
+    ROUTED
+}
@@ -0,0 +1,317 @@
+package MapGenerator;
+
+import java.util.Arrays;
+
+/**
+ * Прокладка коридоров поиском A* по клеткам карты. Шаг в клетку стоит:
+ * <ul>
+ * <li>CORRIDOR_COST - клетка уже построенного коридора или одной из двух
+ * соединяемых комнат;</li>
+ * <li>EMPTY_COST - пустая клетка;</li>
+ * <li>ROOM_COST - клетка другой комнаты.</li>
+ * </ul>
+ * Эвристика - манхэттенское расстояние, умноженное на наименьшую цену шага,
+ * поэтому найденный путь всегда самый дешевый.
+ *
+ * Поиск идет только в прямоугольнике вокруг двух комнат с запасом MARGIN
+ * клеток. Все рабочие массивы (двоичная куча открытых клеток на массивах
+ * long и int, битовое множество закрытых клеток, стоимости и направления)
+ * создаются один раз на карту и растут до самого большого прямоугольника,
+ * поэтому поиск для очередного ребра ничего не создает.
+ *
+ * Комнаты на карте появятся только после коридоров, поэтому клетки комнат
+ * берутся не из карты, а из индекса комнат по квадратам TILE x TILE клеток:
+ * перед поиском комнаты, которые задевают прямоугольник, рисуются в битовую
+ * маску этого прямоугольника. Памяти нужно столько же, сколько на рабочие
+ * массивы поиска, а не на вторую карту.
+ *
+ * @author K1ta
+ */
+final class CorridorRouter {
+
+    static final int CORRIDOR_COST = 1;
+    static final int EMPTY_COST = 2;
+    static final int ROOM_COST = 8;
+    static final int MARGIN = 8;            //запас прямоугольника поиска вокруг комнат
+    static final long MAX_WINDOW = 1 << 24; //наибольшая площадь прямоугольника поиска
+    static final int TILE_SHIFT = 5;        //квадрат индекса комнат - 32x32 клетки
+
+    private static final int[] DR = {-1, 1, 0, 0};
+    private static final int[] DC = {0, 0, -1, 1};
+
+    private final Grid map;          //карта с уже построенными коридорами
+    private final RoomStore rooms;
+    private final int tileCols;      //количество квадратов индекса по ширине
+    private final int[] tileOffsets; //начало списка комнат квадрата
+    private final int[] tileRooms;   //комнаты, которые задевают квадрат
+    private final int[] marked;      //номер поиска, в котором комната нарисована в маску
+
+    private long[] heapKeys = new long[256]; //стоимость пути с эвристикой и эвристика
+    private int[] heapNodes = new int[256];  //клетки кучи
+    private int heapSize;
+    private long[] closed = new long[64];    //закрытые клетки, по биту на клетку
+    private long[] roomMask = new long[64];  //клетки комнат, по биту на клетку
+    private int[] cost = new int[4096];      //лучшая известная стоимость пути до клетки
+    private int[] seen = new int[4096];      //номер поиска, в котором cost клетки задан
+    private byte[] from = new byte[4096];    //направление шага, которым пришли в клетку
+    private int search;                      //номер текущего поиска
+
+    long expanded;    //клеток закрыто во всех поисках
+    long cells;       //клеток коридоров нарисовано
+    int length;       //шагов в последнем проложенном коридоре
+
+    /**
+     *
+     * @param map карта, на которой рисуются коридоры
+     * @param rooms комнаты в координатах карты
+     */
+    CorridorRouter(Grid map, RoomStore rooms) {
+        this.map = map;
+        this.rooms = rooms;
+        int n = rooms.size();
+        marked = new int[n];
+        tileCols = (map.cols() >>> TILE_SHIFT) + 1;
+        int tileRows = (map.rows() >>> TILE_SHIFT) + 1;
+        tileOffsets = new int[tileCols * tileRows + 1];
+        //сначала считаем комнаты в квадратах, потом раскладываем их по спискам
+        for (int i = 0; i < n; i++) {
+            int top = top(i);
+            int left = left(i);
+            for (int tr = top >>> TILE_SHIFT; tr <= (top + rooms.height[i] - 1) >>> TILE_SHIFT; tr++) {
+                for (int tc = left >>> TILE_SHIFT; tc <= (left + rooms.width[i] - 1) >>> TILE_SHIFT; tc++) {
+                    tileOffsets[tr * tileCols + tc + 1]++;
+                }
+            }
+        }
+        for (int t = 0; t + 1 < tileOffsets.length; t++) {
+            tileOffsets[t + 1] += tileOffsets[t];
+        }
+        tileRooms = new int[tileOffsets[tileOffsets.length - 1]];
+        int[] fill = Arrays.copyOf(tileOffsets, tileOffsets.length - 1);
+        for (int i = 0; i < n; i++) {
+            int top = top(i);
+            int left = left(i);
+            for (int tr = top >>> TILE_SHIFT; tr <= (top + rooms.height[i] - 1) >>> TILE_SHIFT; tr++) {
+                for (int tc = left >>> TILE_SHIFT; tc <= (left + rooms.width[i] - 1) >>> TILE_SHIFT; tc++) {
+                    tileRooms[fill[tr * tileCols + tc]++] = i;
+                }
+            }
+        }
+    }
+
+    private int top(int i) {
+        return (int) (rooms.y[i] - rooms.height[i] / 2.0);
+    }
+
+    private int left(int i) {
+        return (int) (rooms.x[i] - rooms.width[i] / 2.0);
+    }
+
+    /**
+     * Прокладывает и рисует коридор между центрами комнат a и b
+     *
+     * @return false если прямоугольник поиска больше MAX_WINDOW и коридор не
+     * нарисован
+     */
+    boolean route(int a, int b) {
+        int aTop = top(a);
+        int aLeft = left(a);
+        int bTop = top(b);
+        int bLeft = left(b);
+        int aBottom = aTop + rooms.height[a];
+        int aRight = aLeft + rooms.width[a];
+        int bBottom = bTop + rooms.height[b];
+        int bRight = bLeft + rooms.width[b];
+        //прямоугольник поиска
+        int r0 = Math.max(0, Math.min(aTop, bTop) - MARGIN);
+        int r1 = Math.min(map.rows(), Math.max(aBottom, bBottom) + MARGIN);
+        int c0 = Math.max(0, Math.min(aLeft, bLeft) - MARGIN);
+        int c1 = Math.min(map.cols(), Math.max(aRight, bRight) + MARGIN);
+        int w = c1 - c0;
+        long area = (long) w * (r1 - r0);
+        if (area > MAX_WINDOW) {
+            return false;
+        }
+        prepare((int) area);
+        markRooms(r0, r1, c0, c1);
+        int goalRow = (int) rooms.y[b] - r0;
+        int goalCol = (int) rooms.x[b] - c0;
+        int start = ((int) rooms.y[a] - r0) * w + (int) rooms.x[a] - c0;
+        int goal = goalRow * w + goalCol;
+        cost[start] = 0;
+        seen[start] = search;
+        push(start, 0, Math.abs(goalRow - start / w) + Math.abs(goalCol - start % w));
+        while (heapSize > 0) {
+            int node = pop();
+            if ((closed[node >>> 6] & (1L << node)) != 0) {
+                //устаревшая запись: клетка уже закрыта с меньшей стоимостью
+                continue;
+            }
+            closed[node >>> 6] |= 1L << node;
+            expanded++;
+            if (node == goal) {
+                break;
+            }
+            int r = node / w;
+            int c = node - r * w;
+            for (int d = 0; d < 4; d++) {
+                int nr = r + DR[d];
+                int nc = c + DC[d];
+                if (nr < 0 || nr >= r1 - r0 || nc < 0 || nc >= w) {
+                    continue;
+                }
+                int next = nr * w + nc;
+                if ((closed[next >>> 6] & (1L << next)) != 0) {
+                    continue;
+                }
+                int row = r0 + nr;
+                int col = c0 + nc;
+                int step;
+                if (map.get(row, col)
+                        || row >= aTop && row < aBottom && col >= aLeft && col < aRight
+                        || row >= bTop && row < bBottom && col >= bLeft && col < bRight) {
+                    step = CORRIDOR_COST;
+                } else if ((roomMask[next >>> 6] & (1L << next)) != 0) {
+                    step = ROOM_COST;
+                } else {
+                    step = EMPTY_COST;
+                }
+                int g = cost[node] + step;
+                if (seen[next] != search || g < cost[next]) {
+                    seen[next] = search;
+                    cost[next] = g;
+                    from[next] = (byte) d;
+                    push(next, g, CORRIDOR_COST * (Math.abs(goalRow - nr) + Math.abs(goalCol - nc)));
+                }
+            }
+        }
+        //рисуем путь от цели назад к началу
+        int node = goal;
+        length = 0;
+        while (node != start) {
+            int r = node / w;
+            map.set(r0 + r, c0 + node - r * w);
+            cells++;
+            length++;
+            int d = from[node];
+            node -= DR[d] * w + DC[d];
+        }
+        map.set(r0 + start / w, c0 + start % w);
+        cells++;
+        return true;
+    }
+
+    /**
+     * Готовит рабочие массивы к поиску в прямоугольнике площадью area
+     */
+    private void prepare(int area) {
+        if (cost.length < area) {
+            int capacity = Math.max(area, cost.length * 2);
+            cost = new int[capacity];
+            seen = new int[capacity];
+            from = new byte[capacity];
+            //номер поиска не сбрасывается: новый seen и так пуст, а в marked
+            //остались номера прошлых поисков, которые нельзя выдать заново
+        }
+        int words = (area + 63) >>> 6;
+        if (closed.length < words) {
+            closed = new long[Math.max(words, closed.length * 2)];
+            roomMask = new long[closed.length];
+        } else {
+            Arrays.fill(closed, 0, words, 0);
+            Arrays.fill(roomMask, 0, words, 0);
+        }
+        if (++search == 0) {
+            //номера поисков кончились, старые отметки надо стереть
+            Arrays.fill(seen, 0);
+            Arrays.fill(marked, 0);
+            search = 1;
+        }
+        heapSize = 0;
+    }
+
+    /**
+     * Рисует в маску клетки комнат, которые задевают прямоугольник поиска.
+     * Комната, которая лежит в нескольких квадратах, рисуется один раз.
+     */
+    private void markRooms(int r0, int r1, int c0, int c1) {
+        int w = c1 - c0;
+        for (int tr = r0 >>> TILE_SHIFT; tr <= (r1 - 1) >>> TILE_SHIFT; tr++) {
+            for (int tc = c0 >>> TILE_SHIFT; tc <= (c1 - 1) >>> TILE_SHIFT; tc++) {
+                int tile = tr * tileCols + tc;
+                for (int k = tileOffsets[tile]; k < tileOffsets[tile + 1]; k++) {
+                    int i = tileRooms[k];
+                    if (marked[i] == search) {
+                        continue;
+                    }
+                    marked[i] = search;
+                    int top = Math.max(r0, top(i));
+                    int bottom = Math.min(r1, top(i) + rooms.height[i]);
+                    int left = Math.max(c0, left(i));
+                    int right = Math.min(c1, left(i) + rooms.width[i]);
+                    for (int row = top; row < bottom; row++) {
+                        int base = (row - r0) * w - c0;
+                        for (int col = left; col < right; col++) {
+                            int cell = base + col;
+                            roomMask[cell >>> 6] |= 1L << cell;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Кладет клетку в кучу. Ключ - стоимость с эвристикой в старших битах и
+     * эвристика в младших: из клеток с одинаковой оценкой первой берется
+     * ближайшая к цели.
+     */
+    private void push(int node, int g, int h) {
+        if (heapSize == heapKeys.length) {
+            heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+            heapNodes = Arrays.copyOf(heapNodes, heapSize * 2);
+        }
+        long key = (long) (g + h) << 32 | h;
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heapKeys[parent] <= key) {
+                break;
+            }
+            heapKeys[i] = heapKeys[parent];
+            heapNodes[i] = heapNodes[parent];
+            i = parent;
+        }
+        heapKeys[i] = key;
+        heapNodes[i] = node;
+    }
+
+    /**
+     * @return клетка с наименьшим ключом, удаленная из кучи
+     */
+    private int pop() {
+        int top = heapNodes[0];
+        int size = --heapSize;
+        long key = heapKeys[size];
+        int node = heapNodes[size];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heapKeys[child + 1] < heapKeys[child]) {
+                child++;
+            }
+            if (key <= heapKeys[child]) {
+                break;
+            }
+            heapKeys[i] = heapKeys[child];
+            heapNodes[i] = heapNodes[child];
+            i = child;
+        }
+        heapKeys[i] = key;
+        heapNodes[i] = node;
+        return top;
+    }
+}
@@ -0,0 +1,69 @@
+package MapGenerator;
+
+/**
+ * Система непересекающихся множеств (union-find) с объединением по рангу и
+ * сжатием путей. Используется для построения минимального остовного дерева
+ * алгоритмом Краскала.
+ *
+ * @author K1ta
+ */
+public class DisjointSet {
+
+    private final int[] parent; //родитель элемента в дереве множества
+    private final byte[] rank;  //верхняя оценка высоты дерева множества
+
+    /**
+     *
+     * @param size количество элементов, изначально каждый в своем множестве
+     */
+    public DisjointSet(int size) {
+        parent = new int[size];
+        rank = new byte[size];
+        for (int i = 0; i < size; i++) {
+            parent[i] = i;
+        }
+    }
+
+    /**
+     * @param a элемент
+     * @return представитель множества, в котором лежит элемент a
+     */
+    public int find(int a) {
+        int root = a;
+        while (parent[root] != root) {
+            root = parent[root];
+        }
+        //сжатие пути: все элементы на пути подвешиваются к корню
+        while (parent[a] != root) {
+            int next = parent[a];
+            parent[a] = root;
+            a = next;
+        }
+        return root;
+    }
+
+    /**
+     * Объединяет множества элементов a и b
+     *
+     * @param a первый элемент
+     * @param b второй элемент
+     * @return true если элементы лежали в разных множествах; false если они
+     * уже были в одном множестве
+     */
+    public boolean union(int a, int b) {
+        a = find(a);
+        b = find(b);
+        if (a == b) {
+            return false;
+        }
+        if (rank[a] < rank[b]) {
+            parent[a] = b;
+        } else if (rank[a] > rank[b]) {
+            parent[b] = a;
+        } else {
+            parent[b] = a;
+            rank[a]++;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,394 @@
+package MapGenerator;
+
+import java.util.Arrays;
+
+/**
+ * Триангуляция Делоне, в которую можно добавлять и из которой можно удалять
+ * точки. Устроена так же, как {@link Triangulation} (треугольники против
+ * часовой стрелки, сосед k лежит за ребром от вершины k к вершине k + 1), но
+ * вершины 0..3 - это углы суперпозиции, а точки получают номера начиная с 4.
+ * Для каждой вершины хранится один из ее треугольников, чтобы обходить
+ * звезду вершины.
+ *
+ * Добавление точки перестраивает только полость (треугольники, в описанную
+ * окружность которых попадает точка). Удаление точки перестраивает только ее
+ * звезду: многоугольник из соседей точки разрезается на треугольники
+ * отсечением "ушей", описанная окружность которых не содержит других вершин
+ * многоугольника. Предикаты точные, как в {@link Triangulation}.
+ *
+ * @author K1ta
+ */
+public class DynamicTriangulation {
+
+    private double[] x;       //координаты вершин по оси X
+    private double[] y;       //координаты вершин по оси Y
+    private long[] fx;        //координаты вершин по оси X в полуклетках
+    private long[] fy;        //координаты вершин по оси Y в полуклетках
+    private int vertices;     //количество вершин вместе с углами
+    private int[] star;       //один из треугольников вершины, -1 если вершины нет в триангуляции
+    private int[] v;          //вершины треугольников, по три на треугольник
+    private int[] adj;        //соседи треугольников, по три на треугольник
+    private int count;        //количество выделенных треугольников
+    private int[] free;       //номера удаленных треугольников
+    private int freeCount;
+    private int last;         //треугольник, с которого начинается обход
+    private int[] mark;       //метки обхода полости
+    private int stamp;
+    private int[] queue;      //очередь обхода полости
+    private int[] edgeA;      //начала ребер контура полости
+    private int[] edgeB;      //концы ребер контура полости
+    private int[] edgeOut;    //внешние соседи ребер контура полости
+    private int[] byStart;    //новый треугольник по первой вершине ребра контура
+
+    /**
+     * Создает пустую триангуляцию из двух треугольников суперпозиции. Все
+     * точки должны лежать строго внутри суперпозиции.
+     *
+     * @param left левая граница суперпозиции
+     * @param bot нижняя граница суперпозиции
+     * @param right правая граница суперпозиции
+     * @param top верхняя граница суперпозиции
+     */
+    public DynamicTriangulation(double left, double bot, double right, double top) {
+        x = new double[16];
+        y = new double[16];
+        fx = new long[16];
+        fy = new long[16];
+        star = new int[16];
+        byStart = new int[16];
+        v = new int[48];
+        adj = new int[48];
+        mark = new int[16];
+        free = new int[16];
+        queue = new int[16];
+        edgeA = new int[16];
+        edgeB = new int[16];
+        edgeOut = new int[16];
+        add(left, bot);
+        add(right, bot);
+        add(right, top);
+        add(left, top);
+        int t1 = allocate(0, 1, 3);
+        int t2 = allocate(1, 2, 3);
+        adj[t1 * 3] = -1;
+        adj[t1 * 3 + 1] = t2;
+        adj[t1 * 3 + 2] = -1;
+        adj[t2 * 3] = -1;
+        adj[t2 * 3 + 1] = -1;
+        adj[t2 * 3 + 2] = t1;
+        last = t1;
+    }
+
+    /**
+     * Заводит вершину, но не вставляет ее в триангуляцию. Позволяет сначала
+     * завести все точки, а потом вставить их в удобном порядке.
+     *
+     * @param px координата по оси X
+     * @param py координата по оси Y
+     * @return номер вершины
+     */
+    public int add(double px, double py) {
+        if (vertices == x.length) {
+            int capacity = vertices * 2;
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            fx = Arrays.copyOf(fx, capacity);
+            fy = Arrays.copyOf(fy, capacity);
+            star = Arrays.copyOf(star, capacity);
+            byStart = Arrays.copyOf(byStart, capacity);
+        }
+        x[vertices] = px;
+        y[vertices] = py;
+        fx[vertices] = Predicates.fixed(px);
+        fy[vertices] = Predicates.fixed(py);
+        star[vertices] = -1;
+        return vertices++;
+    }
+
+    /**
+     * @param p номер вершины
+     * @return true, если p - угол суперпозиции
+     */
+    public boolean isCorner(int p) {
+        return p < 4;
+    }
+
+    /**
+     * @param p номер вершины
+     * @return true, если вершина вставлена в триангуляцию
+     */
+    public boolean contains(int p) {
+        return p < vertices && star[p] != -1;
+    }
+
+    public double x(int p) {
+        return x[p];
+    }
+
+    public double y(int p) {
+        return y[p];
+    }
+
+    /**
+     * @return количество заведенных вершин вместе с углами
+     */
+    public int vertices() {
+        return vertices;
+    }
+
+    /**
+     * Вставляет заведенную вершину p: удаляет треугольники, в описанную
+     * окружность которых она попадает, и соединяет контур полости с p
+     *
+     * @param p номер вершины
+     * @return false, если в этой точке уже есть вершина
+     */
+    public boolean insert(int p) {
+        int t0 = locate(p);
+        for (int k = 0; k < 3; k++) {
+            if (fx[v[t0 * 3 + k]] == fx[p] && fy[v[t0 * 3 + k]] == fy[p]) {
+                return false;
+            }
+        }
+        stamp++;
+        int head = 0;
+        int tail = 0;
+        int edges = 0;
+        queue[tail++] = t0;
+        mark[t0] = stamp;
+        while (head < tail) {
+            int t = queue[head++];
+            for (int k = 0; k < 3; k++) {
+                int o = adj[t * 3 + k];
+                if (o != -1 && mark[o] == stamp) {
+                    continue;
+                }
+                if (o != -1 && inCircle(v[o * 3], v[o * 3 + 1], v[o * 3 + 2], p)) {
+                    mark[o] = stamp;
+                    if (tail == queue.length) {
+                        queue = Arrays.copyOf(queue, tail * 2);
+                    }
+                    queue[tail++] = o;
+                } else {
+                    if (edges == edgeA.length) {
+                        growEdges();
+                    }
+                    edgeA[edges] = v[t * 3 + k];
+                    edgeB[edges] = v[t * 3 + (k + 1) % 3];
+                    edgeOut[edges] = o;
+                    edges++;
+                }
+            }
+        }
+        for (int i = 0; i < tail; i++) {
+            release(queue[i]);
+        }
+        for (int i = 0; i < edges; i++) {
+            int t = allocate(edgeA[i], edgeB[i], p);
+            byStart[edgeA[i]] = t;
+            link(t, 0, edgeOut[i], edgeB[i]);
+        }
+        for (int i = 0; i < edges; i++) {
+            int t = byStart[edgeA[i]];
+            int s = byStart[edgeB[i]];
+            adj[t * 3 + 1] = s;
+            adj[s * 3 + 2] = t;
+        }
+        last = byStart[edgeA[0]];
+        return true;
+    }
+
+    /**
+     * Возвращает соседей вершины против часовой стрелки
+     *
+     * @param p номер вставленной вершины
+     * @return номера соседних вершин, включая углы суперпозиции
+     */
+    public int[] neighbours(int p) {
+        int[] result = new int[8];
+        int size = 0;
+        int t = star[p];
+        do {
+            int k = indexOf(t, p);
+            if (size == result.length) {
+                result = Arrays.copyOf(result, size * 2);
+            }
+            result[size++] = v[t * 3 + (k + 1) % 3];
+            //следующий треугольник против часовой стрелки лежит за ребром (k + 2) -> k
+            t = adj[t * 3 + (k + 2) % 3];
+        } while (t != star[p]);
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Удаляет вершину p и заполняет ее звезду новыми треугольниками
+     *
+     * @param p номер вставленной вершины (не угол суперпозиции)
+     * @return новые ребра парами концов: a0, b0, a1, b1, ...
+     */
+    public int[] remove(int p) {
+        //многоугольник звезды против часовой стрелки и треугольники за его ребрами
+        int m = 0;
+        int t = star[p];
+        do {
+            int k = indexOf(t, p);
+            if (m == edgeA.length) {
+                growEdges();
+            }
+            edgeA[m] = v[t * 3 + (k + 1) % 3];
+            edgeOut[m] = adj[t * 3 + (k + 1) % 3];
+            m++;
+            int next = adj[t * 3 + (k + 2) % 3];
+            release(t);
+            t = next;
+        } while (t != star[p]);
+        star[p] = -1;
+        //edgeB - номер следующей вершины многоугольника, пока она не отсечена
+        for (int i = 0; i < m; i++) {
+            edgeB[i] = (i + 1) % m;
+        }
+        int[] diagonals = new int[2 * (m - 3)];
+        int made = 0;
+        int a = 0;
+        int left = m;
+        while (left > 3) {
+            int b = edgeB[a];
+            int c = edgeB[b];
+            if (isEar(a, b, c)) {
+                //новый треугольник (a, b, c); за его ребром c -> a теперь лежит он сам
+                int ear = allocate(edgeA[a], edgeA[b], edgeA[c]);
+                link(ear, 0, edgeOut[a], edgeA[b]);
+                link(ear, 1, edgeOut[b], edgeA[c]);
+                edgeOut[a] = ear;
+                edgeB[a] = c;
+                diagonals[made++] = edgeA[a];
+                diagonals[made++] = edgeA[c];
+                left--;
+            } else {
+                a = b;
+            }
+        }
+        int b = edgeB[a];
+        int c = edgeB[b];
+        int tri = allocate(edgeA[a], edgeA[b], edgeA[c]);
+        link(tri, 0, edgeOut[a], edgeA[b]);
+        link(tri, 1, edgeOut[b], edgeA[c]);
+        link(tri, 2, edgeOut[c], edgeA[a]);
+        last = tri;
+        return diagonals;
+    }
+
+    /**
+     * Проверяет, можно ли отсечь треугольник из вершин многоугольника a, b, c:
+     * он должен быть выпуклым, а в его описанную окружность не должна
+     * попадать ни одна другая вершина многоугольника
+     */
+    private boolean isEar(int a, int b, int c) {
+        int pa = edgeA[a];
+        int pb = edgeA[b];
+        int pc = edgeA[c];
+        if (orient(pa, pb, pc) <= 0) {
+            return false;
+        }
+        for (int i = edgeB[c]; i != a; i = edgeB[i]) {
+            if (inCircle(pa, pb, pc, edgeA[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Делает треугольник o соседом треугольника t за ребром k, а t - соседом
+     * o за общим ребром
+     *
+     * @param end конец ребра k треугольника t (начало общего ребра в o)
+     */
+    private void link(int t, int k, int o, int end) {
+        adj[t * 3 + k] = o;
+        if (o != -1) {
+            for (int i = 0; i < 3; i++) {
+                if (v[o * 3 + i] == end) {
+                    adj[o * 3 + i] = t;
+                    break;
+                }
+            }
+        }
+    }
+
+    private int indexOf(int t, int p) {
+        return v[t * 3] == p ? 0 : v[t * 3 + 1] == p ? 1 : 2;
+    }
+
+    /**
+     * Ищет треугольник, содержащий точку p, обходом от треугольника last
+     */
+    private int locate(int p) {
+        int t = last;
+        int step = 0;
+        boolean moved = true;
+        while (moved) {
+            moved = false;
+            for (int i = 0; i < 3; i++) {
+                int k = (i + step) % 3;
+                int a = v[t * 3 + k];
+                int b = v[t * 3 + (k + 1) % 3];
+                if (orient(a, b, p) < 0) {
+                    t = adj[t * 3 + k];
+                    moved = true;
+                    step++;
+                    break;
+                }
+            }
+        }
+        return t;
+    }
+
+    private long orient(int a, int b, int c) {
+        return Predicates.orient(fx[a], fy[a], fx[b], fy[b], fx[c], fy[c]);
+    }
+
+    /**
+     * Проверяет, попадает ли точка p строго внутрь окружности, описанной
+     * вокруг треугольника a, b, c (против часовой стрелки)
+     */
+    private boolean inCircle(int a, int b, int c, int p) {
+        return Predicates.inCircle(fx[a], fy[a], fx[b], fy[b], fx[c], fy[c], fx[p], fy[p]);
+    }
+
+    private int allocate(int a, int b, int c) {
+        int t;
+        if (freeCount > 0) {
+            t = free[--freeCount];
+        } else {
+            if (count == mark.length) {
+                int capacity = count * 2;
+                v = Arrays.copyOf(v, capacity * 3);
+                adj = Arrays.copyOf(adj, capacity * 3);
+                mark = Arrays.copyOf(mark, capacity);
+            }
+            t = count++;
+        }
+        v[t * 3] = a;
+        v[t * 3 + 1] = b;
+        v[t * 3 + 2] = c;
+        star[a] = t;
+        star[b] = t;
+        star[c] = t;
+        return t;
+    }
+
+    private void release(int t) {
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, freeCount * 2);
+        }
+        free[freeCount++] = t;
+    }
+
+    private void growEdges() {
+        int capacity = edgeA.length * 2;
+        edgeA = Arrays.copyOf(edgeA, capacity);
+        edgeB = Arrays.copyOf(edgeB, capacity);
+        edgeOut = Arrays.copyOf(edgeOut, capacity);
+    }
+}
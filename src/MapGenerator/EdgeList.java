@@ -0,0 +1,133 @@
+package MapGenerator;
+
+import java.util.Arrays;
+
+/**
+ * Список ребер графа комнат в виде параллельных массивов. Ребро хранится как
+ * пара номеров комнат (from &lt; to) и его стоимость (расстояние между центрами
+ * комнат).
+ *
+ * @author K1ta
+ */
+public class EdgeList {
+
+    private int[] from;     //меньший номер комнаты
+    private int[] to;       //больший номер комнаты
+    private double[] cost;  //длина ребра
+    private int size;       //количество ребер
+
+    public EdgeList() {
+        this(16);
+    }
+
+    /**
+     *
+     * @param capacity начальная вместимость списка
+     */
+    public EdgeList(int capacity) {
+        capacity = Math.max(capacity, 1);
+        from = new int[capacity];
+        to = new int[capacity];
+        cost = new double[capacity];
+    }
+
+    /**
+     * Добавляет ребро в конец списка. Номера вершин упорядочиваются так, чтобы
+     * from был меньше to.
+     *
+     * @param a номер первой комнаты
+     * @param b номер второй комнаты
+     * @param c длина ребра
+     */
+    public void add(int a, int b, double c) {
+        if (size == from.length) {
+            from = Arrays.copyOf(from, size * 2);
+            to = Arrays.copyOf(to, size * 2);
+            cost = Arrays.copyOf(cost, size * 2);
+        }
+        from[size] = Math.min(a, b);
+        to[size] = Math.max(a, b);
+        cost[size] = c;
+        size++;
+    }
+
+    /**
+     * @param i номер ребра
+     * @return меньший номер комнаты ребра i
+     */
+    public int from(int i) {
+        return from[i];
+    }
+
+    /**
+     * @param i номер ребра
+     * @return больший номер комнаты ребра i
+     */
+    public int to(int i) {
+        return to[i];
+    }
+
+    /**
+     * @param i номер ребра
+     * @return длина ребра i
+     */
+    public double cost(int i) {
+        return cost[i];
+    }
+
+    /**
+     * @return количество ребер
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true если список пуст
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Сортирует ребра по возрастанию стоимости. Сортировка слиянием устойчива,
+     * то есть ребра с одинаковой стоимостью сохраняют свой порядок.
+     */
+    public void sortByCost() {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        int[] buffer = new int[size];
+        for (int width = 1; width < size; width *= 2) {
+            for (int lo = 0; lo < size - width; lo += width * 2) {
+                int mid = lo + width;
+                int hi = Math.min(lo + width * 2, size);
+                int i = lo;
+                int j = mid;
+                int k = lo;
+                while (i < mid && j < hi) {
+                    buffer[k++] = cost[order[j]] < cost[order[i]] ? order[j++] : order[i++];
+                }
+                while (i < mid) {
+                    buffer[k++] = order[i++];
+                }
+                while (j < hi) {
+                    buffer[k++] = order[j++];
+                }
+                System.arraycopy(buffer, lo, order, lo, hi - lo);
+            }
+        }
+        int[] newFrom = new int[from.length];
+        int[] newTo = new int[to.length];
+        double[] newCost = new double[cost.length];
+        for (int i = 0; i < size; i++) {
+            newFrom[i] = from[order[i]];
+            newTo[i] = to[order[i]];
+            newCost[i] = cost[order[i]];
+        }
+        from = newFrom;
+        to = newTo;
+        cost = newCost;
+    }
+}
@@ -0,0 +1,26 @@
+package MapGenerator;
+
+/**
+ * Результат генерации одной карты в пакетном режиме
+ *
+ * @author K1ta
+ */
+public class GeneratedMap {
+
+    public final int index;      //номер карты в пакете
+    public final MapSpec spec;   //параметры генерации
+    public final Grid grid;   //сгенерированная карта
+    public final long nanos;     //время генерации в наносекундах
+
+    public GeneratedMap(int index, MapSpec spec, Grid grid, long nanos) {
+        this.index = index;
+        this.spec = spec;
+        this.grid = grid;
+        this.nanos = nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + index + " " + spec + " " + grid.rows() + "x" + grid.cols();
+    }
+}
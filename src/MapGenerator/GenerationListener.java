@@ -0,0 +1,30 @@
+package MapGenerator;
+
+/**
+ * Получатель метрик генерации. Устанавливается через
+ * {@link MapGenerator#setListener(GenerationListener)}. Если получатель не
+ * установлен, генератор не замеряет время этапов.
+ *
+ * @author K1ta
+ */
+public interface GenerationListener {
+
+    /**
+     * Вызывается после каждого этапа генерации
+     *
+     * @param generator генератор
+     * @param stage завершенный этап
+     * @param nanos длительность этапа в наносекундах
+     */
+    default void stageFinished(MapGenerator generator, Stage stage, long nanos) {
+    }
+
+    /**
+     * Вызывается после завершения всей генерации
+     *
+     * @param generator генератор
+     * @param metrics длительности этапов и счетчики
+     */
+    default void generationFinished(MapGenerator generator, GenerationMetrics metrics) {
+    }
+}
@@ -0,0 +1,61 @@
+package MapGenerator;
+
+/**
+ * Длительности этапов и счетчики одной генерации карты
+ *
+ * @author K1ta
+ */
+public class GenerationMetrics {
+
+    public final long[] stageNanos = new long[Stage.values().length]; //длительности этапов
+    public long separationPasses;   //количество проходов разделения комнат
+    public long overlapTests;       //количество проверок пересечения комнат
+    public long roomsDropped;       //комнат удалено, потому что бюджет разделения исчерпан
+    public long trianglesCreated;   //создано треугольников
+    public long trianglesDestroyed; //удалено треугольников
+    public long cavityTriangles;    //суммарный размер всех полостей
+    public int maxCavity;           //наибольшая полость (в треугольниках)
+    public long mstEdgesScanned;    //ребер просмотрено при построении дерева
+    public long loopsAdded;         //ребер добавлено к дереву как петли
+    public long cellsRasterized;    //ячеек записано в карту
+    public long corridorCellsExpanded; //клеток закрыто поиском коридоров (CorridorMode.ROUTED)
+
+    /**
+     * @param stage этап
+     * @return длительность этапа в наносекундах
+     */
+    public long nanos(Stage stage) {
+        return stageNanos[stage.ordinal()];
+    }
+
+    /**
+     * @return суммарная длительность всех этапов в наносекундах
+     */
+    public long totalNanos() {
+        long total = 0;
+        for (long nanos : stageNanos) {
+            total += nanos;
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            sb.append(stage).append(": ").append(nanos(stage) / 1e6).append("ms\n");
+        }
+        sb.append("separation passes: ").append(separationPasses)
+                .append(", overlap tests: ").append(overlapTests)
+                .append(", rooms dropped: ").append(roomsDropped).append('\n')
+                .append("triangles created: ").append(trianglesCreated)
+                .append(", destroyed: ").append(trianglesDestroyed)
+                .append(", max cavity: ").append(maxCavity)
+                .append(", total cavity: ").append(cavityTriangles).append('\n')
+                .append("MST edges scanned: ").append(mstEdgesScanned)
+                .append(", loops added: ").append(loopsAdded).append('\n')
+                .append("cells rasterized: ").append(cellsRasterized)
+                .append(", corridor cells expanded: ").append(corridorCellsExpanded);
+        return sb.toString();
+    }
+}
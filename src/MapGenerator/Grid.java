@@ -0,0 +1,161 @@
+package MapGenerator;
+
+/**
+ * Битовая карта подземелья. Ячейки строки лежат в словах long по 64 штуки:
+ * бит j слова w строки i соответствует ячейке (i, w * 64 + j), биты за
+ * пределами ширины карты всегда равны нулю. Реализации различаются только
+ * тем, где лежат слова: {@link BitGrid} - в массиве в куче,
+ * {@link MappedBitGrid} - в файле, отображенном в память.
+ *
+ * Все операции, кроме word и setWord, выражены через них, поэтому реализации
+ * достаточно хранить слова.
+ *
+ * @author K1ta
+ */
+public interface Grid {
+
+    /**
+     * @return количество строк
+     */
+    int rows();
+
+    /**
+     * @return количество столбцов
+     */
+    int cols();
+
+    /**
+     * @return количество слов long в одной строке
+     */
+    default int stride() {
+        return (cols() + 63) >>> 6;
+    }
+
+    /**
+     * @param row номер строки
+     * @param w номер слова в строке
+     * @return слово с ячейками w * 64 .. w * 64 + 63 строки row
+     */
+    long word(int row, int w);
+
+    /**
+     * Заменяет слово w строки row. Биты за пределами ширины карты
+     * отбрасываются.
+     *
+     * @param row номер строки
+     * @param w номер слова в строке
+     * @param value новые ячейки w * 64 .. w * 64 + 63
+     */
+    void setWord(int row, int w, long value);
+
+    /**
+     * @param row номер строки
+     * @param col номер столбца
+     * @return значение ячейки
+     */
+    default boolean get(int row, int col) {
+        check(row, col);
+        return (word(row, col >>> 6) & (1L << col)) != 0;
+    }
+
+    /**
+     * Записывает true в ячейку
+     *
+     * @param row номер строки
+     * @param col номер столбца
+     */
+    default void set(int row, int col) {
+        check(row, col);
+        setWord(row, col >>> 6, word(row, col >>> 6) | (1L << col));
+    }
+
+    /**
+     * Записывает true в ячейки строки row со столбца from (включительно) до
+     * столбца to (не включительно)
+     *
+     * @param row номер строки
+     * @param from первый столбец
+     * @param to столбец после последнего
+     */
+    default void fillRow(int row, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        check(row, from);
+        check(row, to - 1);
+        for (int w = from >>> 6; w <= (to - 1) >>> 6; w++) {
+            setWord(row, w, word(row, w) | mask(w, from, to));
+        }
+    }
+
+    /**
+     * Записывает false в ячейки строки row со столбца from (включительно) до
+     * столбца to (не включительно)
+     *
+     * @param row номер строки
+     * @param from первый столбец
+     * @param to столбец после последнего
+     */
+    default void clearRow(int row, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        check(row, from);
+        check(row, to - 1);
+        for (int w = from >>> 6; w <= (to - 1) >>> 6; w++) {
+            setWord(row, w, word(row, w) & ~mask(w, from, to));
+        }
+    }
+
+    /**
+     * @return количество ячеек со значением true
+     */
+    default long count() {
+        long count = 0;
+        for (int i = 0; i < rows(); i++) {
+            for (int w = 0; w < stride(); w++) {
+                count += Long.bitCount(word(i, w));
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Копирует карту в массив boolean[][] для кода, который работает с
+     * массивом напрямую
+     *
+     * @return массив rows x cols
+     */
+    default boolean[][] toArray() {
+        boolean[][] map = new boolean[rows()][cols()];
+        for (int i = 0; i < rows(); i++) {
+            for (int j = 0; j < cols(); j++) {
+                map[i][j] = (word(i, j >>> 6) & (1L << j)) != 0;
+            }
+        }
+        return map;
+    }
+
+    /**
+     * @return биты слова w, которые попадают в столбцы from..to - 1
+     */
+    private static long mask(int w, int from, int to) {
+        long mask = -1L;
+        if (w == from >>> 6) {
+            mask &= -1L << from;
+        }
+        if (w == (to - 1) >>> 6) {
+            mask &= -1L >>> (63 - ((to - 1) & 63));
+        }
+        return mask;
+    }
+
+    /**
+     * @throws IndexOutOfBoundsException если ячейки нет на карте
+     */
+    private void check(int row, int col) {
+        if (row < 0 || row >= rows() || col < 0 || col >= cols()) {
+            throw new IndexOutOfBoundsException("(" + row + ";" + col + ")");
+        }
+    }
+}
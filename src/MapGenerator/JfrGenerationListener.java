@@ -0,0 +1,127 @@
+package MapGenerator;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Получатель метрик, который записывает их как события JDK Flight Recorder.
+ * Если запись JFR не идет или события выключены, получатель ничего не
+ * создает, поэтому его можно оставлять установленным постоянно.
+ *
+ * Пример: java -XX:StartFlightRecording=filename=gen.jfr ... и затем
+ * jfr print --events MapGenerator.Generation gen.jfr
+ *
+ * @author K1ta
+ */
+public class JfrGenerationListener implements GenerationListener {
+
+    @Override
+    public void stageFinished(MapGenerator generator, Stage stage, long nanos) {
+        StageEvent event = new StageEvent();
+        if (event.isEnabled()) {
+            event.stage = stage.name();
+            event.seed = generator.getSeed();
+            event.stageNanos = nanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void generationFinished(MapGenerator generator, GenerationMetrics metrics) {
+        GenerationEvent event = new GenerationEvent();
+        if (event.isEnabled()) {
+            event.seed = generator.getSeed();
+            event.totalNanos = metrics.totalNanos();
+            event.separationPasses = metrics.separationPasses;
+            event.overlapTests = metrics.overlapTests;
+            event.roomsDropped = metrics.roomsDropped;
+            event.trianglesCreated = metrics.trianglesCreated;
+            event.trianglesDestroyed = metrics.trianglesDestroyed;
+            event.cavityTriangles = metrics.cavityTriangles;
+            event.maxCavity = metrics.maxCavity;
+            event.mstEdgesScanned = metrics.mstEdgesScanned;
+            event.loopsAdded = metrics.loopsAdded;
+            event.cellsRasterized = metrics.cellsRasterized;
+            event.corridorCellsExpanded = metrics.corridorCellsExpanded;
+            event.commit();
+        }
+    }
+
+    /**
+     * Один этап генерации. Событие создается уже после этапа, поэтому
+     * длительность передается отдельным полем (поле duration занято Event).
+     */
+    @Name("MapGenerator.Stage")
+    @Label("Map Generation Stage")
+    @Category("MapGenerator")
+    @StackTrace(false)
+    static class StageEvent extends Event {
+
+        @Label("Stage")
+        String stage;
+
+        @Label("Seed")
+        long seed;
+
+        @Label("Stage Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long stageNanos;
+    }
+
+    /**
+     * Вся генерация карты со счетчиками
+     */
+    @Name("MapGenerator.Generation")
+    @Label("Map Generation")
+    @Category("MapGenerator")
+    @StackTrace(false)
+    static class GenerationEvent extends Event {
+
+        @Label("Seed")
+        long seed;
+
+        @Label("Generation Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long totalNanos;
+
+        @Label("Separation Passes")
+        long separationPasses;
+
+        @Label("Overlap Tests")
+        long overlapTests;
+
+        @Label("Rooms Dropped")
+        long roomsDropped;
+
+        @Label("Triangles Created")
+        long trianglesCreated;
+
+        @Label("Triangles Destroyed")
+        long trianglesDestroyed;
+
+        @Label("Cavity Triangles")
+        @Description("Суммарный размер всех полостей при вставке точек")
+        long cavityTriangles;
+
+        @Label("Max Cavity")
+        int maxCavity;
+
+        @Label("MST Edges Scanned")
+        long mstEdgesScanned;
+
+        @Label("Loops Added")
+        long loopsAdded;
+
+        @Label("Cells Rasterized")
+        long cellsRasterized;
+
+        @Label("Corridor Cells Expanded")
+        @Description("Клеток закрыто поиском A* при прокладке коридоров")
+        long corridorCellsExpanded;
+    }
+}
@@ -0,0 +1,236 @@
+package MapGenerator;
+
+import java.util.Arrays;
+
+/**
+ * Динамический лес (link-cut tree, Sleator и Tarjan) с весами вершин.
+ * Соединение и разрезание деревьев, поиск корня и вершины с наибольшим весом
+ * на пути между двумя вершинами занимают амортизированно O(log n) независимо
+ * от формы деревьев.
+ *
+ * Каждый путь дерева хранится в косом (splay) дереве по глубине; ребра
+ * такого дерева - left/right, а par - либо родитель в косом дереве, либо
+ * (у корня косого дерева) ссылка на вершину пути выше. Чтобы взвешивать
+ * ребра, ребро представляется отдельной вершиной с весом ребра между двумя
+ * вершинами с весом -бесконечность.
+ *
+ * @author K1ta
+ */
+final class LinkCutTree {
+
+    private int[] left;       //левый ребенок в косом дереве
+    private int[] right;      //правый ребенок в косом дереве
+    private int[] par;        //родитель в косом дереве или вершина пути выше
+    private boolean[] flip;   //у поддерева отложен разворот
+    private double[] weight;  //вес вершины
+    private int[] best;       //вершина с наибольшим весом в поддереве косого дерева
+    private int[] stack;      //вершины от корня косого дерева до текущей
+
+    /**
+     * @param capacity количество вершин
+     */
+    LinkCutTree(int capacity) {
+        left = new int[0];
+        right = new int[0];
+        par = new int[0];
+        flip = new boolean[0];
+        weight = new double[0];
+        best = new int[0];
+        stack = new int[0];
+        grow(capacity);
+    }
+
+    /**
+     * Увеличивает количество вершин до capacity. Новые вершины - отдельные
+     * деревья с весом -бесконечность.
+     */
+    void grow(int capacity) {
+        int old = left.length;
+        if (capacity <= old) {
+            return;
+        }
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        par = Arrays.copyOf(par, capacity);
+        flip = Arrays.copyOf(flip, capacity);
+        weight = Arrays.copyOf(weight, capacity);
+        best = Arrays.copyOf(best, capacity);
+        stack = new int[capacity];
+        for (int v = old; v < capacity; v++) {
+            reset(v, Double.NEGATIVE_INFINITY);
+        }
+    }
+
+    /**
+     * Делает вершину v отдельным деревом с весом w. Вершина не должна быть
+     * соединена с другими.
+     */
+    void reset(int v, double w) {
+        left[v] = -1;
+        right[v] = -1;
+        par[v] = -1;
+        flip[v] = false;
+        weight[v] = w;
+        best[v] = v;
+    }
+
+    /**
+     * @return вес вершины
+     */
+    double weight(int v) {
+        return weight[v];
+    }
+
+    /**
+     * Соединяет ребром вершины из разных деревьев
+     */
+    void link(int u, int v) {
+        makeRoot(u);
+        par[u] = v;
+    }
+
+    /**
+     * Удаляет ребро u - v, которое есть в лесу
+     */
+    void cut(int u, int v) {
+        makeRoot(u);
+        access(v);
+        //теперь путь состоит из u и v, и u - левый ребенок v
+        left[v] = -1;
+        par[u] = -1;
+        pull(v);
+    }
+
+    /**
+     * @return корень дерева вершины v. Корень не меняется, пока дерево не
+     * изменится.
+     */
+    int root(int v) {
+        access(v);
+        int r = v;
+        push(r);
+        while (left[r] != -1) {
+            r = left[r];
+            push(r);
+        }
+        splay(r);
+        return r;
+    }
+
+    /**
+     * @return true если вершины лежат в одном дереве
+     */
+    boolean connected(int u, int v) {
+        return u == v || root(u) == root(v);
+    }
+
+    /**
+     * @return вершина с наибольшим весом на пути между u и v, которые лежат
+     * в одном дереве
+     */
+    int heaviest(int u, int v) {
+        makeRoot(u);
+        access(v);
+        return best[v];
+    }
+
+    private void makeRoot(int v) {
+        access(v);
+        flip[v] = !flip[v];
+    }
+
+    /**
+     * Делает путь от корня дерева до v одним путем, а v - корнем его косого
+     * дерева
+     */
+    private void access(int v) {
+        int last = -1;
+        for (int u = v; u != -1; u = par[u]) {
+            splay(u);
+            right[u] = last;
+            pull(u);
+            last = u;
+        }
+        splay(v);
+    }
+
+    private boolean isRoot(int v) {
+        int p = par[v];
+        return p == -1 || (left[p] != v && right[p] != v);
+    }
+
+    private void push(int v) {
+        if (flip[v]) {
+            int l = left[v];
+            left[v] = right[v];
+            right[v] = l;
+            if (left[v] != -1) {
+                flip[left[v]] = !flip[left[v]];
+            }
+            if (right[v] != -1) {
+                flip[right[v]] = !flip[right[v]];
+            }
+            flip[v] = false;
+        }
+    }
+
+    private void pull(int v) {
+        int b = v;
+        if (left[v] != -1 && weight[best[left[v]]] > weight[b]) {
+            b = best[left[v]];
+        }
+        if (right[v] != -1 && weight[best[right[v]]] > weight[b]) {
+            b = best[right[v]];
+        }
+        best[v] = b;
+    }
+
+    private void rotate(int x) {
+        int y = par[x];
+        int z = par[y];
+        if (!isRoot(y)) {
+            if (left[z] == y) {
+                left[z] = x;
+            } else {
+                right[z] = x;
+            }
+        }
+        par[x] = z;
+        if (left[y] == x) {
+            left[y] = right[x];
+            if (right[x] != -1) {
+                par[right[x]] = y;
+            }
+            right[x] = y;
+        } else {
+            right[y] = left[x];
+            if (left[x] != -1) {
+                par[left[x]] = y;
+            }
+            left[x] = y;
+        }
+        par[y] = x;
+        pull(y);
+        pull(x);
+    }
+
+    private void splay(int x) {
+        //отложенные развороты сначала проталкиваются от корня косого дерева к x
+        int size = 0;
+        stack[size++] = x;
+        for (int v = x; !isRoot(v); v = par[v]) {
+            stack[size++] = par[v];
+        }
+        while (size > 0) {
+            push(stack[--size]);
+        }
+        while (!isRoot(x)) {
+            int y = par[x];
+            if (!isRoot(y)) {
+                int z = par[y];
+                rotate((left[y] == x) == (left[z] == y) ? y : x);
+            }
+            rotate(x);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package MapGenerator;
+
+import java.util.Arrays;
+
+/**
+ * Множество чисел long на хеш-таблице с открытой адресацией и линейным
+ * пробированием. В отличие от HashSet&lt;Long&gt; не создает объект на каждый
+ * элемент. Удаление элементов не поддерживается.
+ *
+ * @author K1ta
+ */
+public class LongHashSet {
+
+    private long[] keys;       //ключи
+    private boolean[] filled;  //занят ли слот
+    private int size;          //количество элементов
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    /**
+     *
+     * @param expected ожидаемое количество элементов
+     */
+    public LongHashSet(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        filled = new boolean[capacity];
+    }
+
+    /**
+     * Добавляет ключ в множество
+     *
+     * @param key ключ
+     * @return true если ключа в множестве не было; false если он уже был
+     */
+    public boolean add(long key) {
+        int mask = keys.length - 1;
+        int s = hash(key) & mask;
+        while (filled[s]) {
+            if (keys[s] == key) {
+                return false;
+            }
+            s = (s + 1) & mask;
+        }
+        filled[s] = true;
+        keys[s] = key;
+        size++;
+        if (size * 2 > keys.length) {
+            grow();
+        }
+        return true;
+    }
+
+    /**
+     * @param key ключ
+     * @return true если ключ есть в множестве
+     */
+    public boolean contains(long key) {
+        int mask = keys.length - 1;
+        for (int s = hash(key) & mask; filled[s]; s = (s + 1) & mask) {
+            if (keys[s] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return количество элементов
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Удаляет все элементы, сохраняя размер таблицы
+     */
+    public void clear() {
+        Arrays.fill(filled, false);
+        size = 0;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        boolean[] oldFilled = filled;
+        keys = new long[oldKeys.length * 2];
+        filled = new boolean[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldFilled[i]) {
+                int s = hash(oldKeys[i]) & mask;
+                while (filled[s]) {
+                    s = (s + 1) & mask;
+                }
+                filled[s] = true;
+                keys[s] = oldKeys[i];
+            }
+        }
+    }
+}
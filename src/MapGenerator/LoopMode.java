@@ -0,0 +1,21 @@
+package MapGenerator;
+
+/**
+ * Способ выбора ребер триангуляции, которые добавляются к остовному дереву
+ * как петли (см. {@link MapGenerator#setLoops(LoopMode, double)})
+ *
+ * @author K1ta
+ */
+public enum LoopMode {
+    /**
+     * Самые короткие ребра вне дерева: доля fraction от всех таких ребер в
+     * порядке возрастания длины
+     */
+    SHORTEST,
+    /**
+     * Каждое ребро вне дерева становится петлей с вероятностью fraction.
+     * Случайные числа берутся из отдельного потока генератора, поэтому
+     * комнаты и дерево для того же зерна не меняются.
+     */
+    SAMPLED
+}
@@ -0,0 +1,600 @@
+package MapGenerator;
+
+import java.util.Arrays;
+
+/**
+ * Редактирование готовой карты: добавление и удаление комнат без повторной
+ * генерации. Редактор хранит триангуляцию Делоне центров комнат, остовное
+ * дерево коридоров и индекс фигур по квадратам карты, поэтому каждая правка
+ * обходит только затронутую часть карты:
+ * <ul>
+ * <li>триангуляция перестраивает только полость новой комнаты или звезду
+ * удаленной;</li>
+ * <li>новая комната пробует ребра к своим соседям по триангуляции в порядке
+ * длины и заменяет самое длинное ребро на пути в дереве, если новое ребро
+ * короче; удаленная комната заменяется ребрами по ее звезде алгоритмом
+ * Краскала;</li>
+ * <li>дерево хранится в {@link LinkCutTree}, поэтому поиск самого длинного
+ * ребра на пути, корня части дерева, соединение и разрезание занимают
+ * амортизированно O(log n), даже если в дереве длинные цепочки;</li>
+ * <li>перерисовываются только прямоугольники стертых комнат и коридоров.</li>
+ * </ul>
+ * Время правки - O(k log n) для звезды комнаты из k ребер плюс площадь
+ * перерисованных фигур. После добавления дерево остается минимальным, а
+ * после удаления оно минимально среди ребер звезды удаленной комнаты.
+ *
+ * Редактор изменяет карту генератора, из которого создан: {@link #getGrid()}
+ * - тот же объект, что и у генератора. Комнаты и коридоры генератора после
+ * создания редактора не меняются, поэтому граф комнат нужно получать из
+ * {@link #createNavigationGraph()}, а генератор использовать только для
+ * вывода карты. Комнаты нумеруются в порядке генерации, новые комнаты
+ * получают следующие номера, номера удаленных комнат не используются
+ * повторно.
+ *
+ * @author K1ta
+ */
+public class MapEditor {
+
+    private static final int TILE_SHIFT = 6;   //квадраты индекса фигур 64x64 клетки
+    private static final long ROOM = 0xFFFFFFFFL; //младшая половина ключа фигуры-комнаты
+
+    private final Grid grid;       //карта
+    private final DynamicTriangulation triangulation; //вершина комнаты i - i + 4
+    private int count;                //количество выданных номеров комнат
+    private int[] col;                //левый столбец комнаты
+    private int[] row;                //верхняя строка комнаты
+    private int[] width;              //ширина комнаты
+    private int[] height;             //высота комнаты
+    private double[] cx;              //центр комнаты по оси X (столбцы)
+    private double[] cy;              //центр комнаты по оси Y (строки)
+    private boolean[] alive;          //есть ли комната на карте
+    private final LinkCutTree tree;   //остовное дерево: комната i - вершина 2i, ребро e - 2e + 1
+    private int[][] links;            //ребра остовного дерева у комнаты
+    private int[] degree;             //количество ребер у комнаты
+    private int[] edgeFrom;           //первая комната ребра, -1 у свободного номера
+    private int[] edgeTo;             //вторая комната ребра
+    private int[] freeEdges;          //свободные номера ребер
+    private int freeCount;
+    private int edgeCount;            //количество выданных номеров ребер
+    private final int tileCols;       //количество квадратов индекса по ширине
+    private final long[][] tiles;     //фигуры, которые задевают квадрат
+    private final int[] tileSize;     //количество фигур в квадрате
+    private final int[] spans = new int[6];
+    private final int[] rects = new int[8];
+
+    /**
+     * Создает редактор карты, которую уже построил генератор
+     *
+     * @param generator генератор после вызова generateMap()
+     */
+    public MapEditor(MapGenerator generator) {
+        grid = generator.getGrid();
+        if (grid == null) {
+            throw new IllegalArgumentException("Карта еще не сгенерирована");
+        }
+        if (generator.getCorridorMode() != CorridorMode.STRAIGHT) {
+            //редактор стирает и рисует коридоры буквой L
+            throw new IllegalArgumentException("Редактор поддерживает только коридоры " + CorridorMode.STRAIGHT);
+        }
+        if (generator.getEdges().size() >= generator.getRooms().size() && generator.getRooms().size() > 0) {
+            //редактор хранит коридоры как дерево
+            throw new IllegalArgumentException("Редактор поддерживает только коридоры без петель");
+        }
+        RoomStore rooms = generator.getRooms();
+        int n = rooms.size();
+        int capacity = Math.max(n, 16);
+        col = new int[capacity];
+        row = new int[capacity];
+        width = new int[capacity];
+        height = new int[capacity];
+        cx = new double[capacity];
+        cy = new double[capacity];
+        alive = new boolean[capacity];
+        links = new int[capacity][];
+        degree = new int[capacity];
+        edgeFrom = new int[capacity];
+        edgeTo = new int[capacity];
+        freeEdges = new int[capacity];
+        tree = new LinkCutTree(capacity * 2);
+        tileCols = (grid.cols() >>> TILE_SHIFT) + 1;
+        int tileRows = (grid.rows() >>> TILE_SHIFT) + 1;
+        tiles = new long[tileRows * tileCols][];
+        tileSize = new int[tileRows * tileCols];
+        //суперпозиция намного больше карты, чтобы углы не отнимали ребра у комнат
+        double size = Math.max(grid.rows(), grid.cols());
+        triangulation = new DynamicTriangulation(-10 * size, -10 * size, 11 * size, 11 * size);
+        for (int i = 0; i < n; i++) {
+            int id = count++;
+            cx[id] = rooms.x[i];
+            cy[id] = rooms.y[i];
+            col[id] = (int) (rooms.x[i] - rooms.width[i] / 2.0);
+            row[id] = (int) (rooms.y[i] - rooms.height[i] / 2.0);
+            width[id] = rooms.width[i];
+            height[id] = rooms.height[i];
+            alive[id] = true;
+            links[id] = new int[4];
+            triangulation.add(cx[id], cy[id]);
+            register(roomKey(id));
+        }
+        for (int p : Triangulation.insertionOrder(cx, cy, n)) {
+            triangulation.insert(p + 4);
+        }
+        EdgeList edges = generator.getEdges();
+        for (int k = 0; k < edges.size(); k++) {
+            link(edges.from(k), edges.to(k));
+            register(corridorKey(edges.from(k), edges.to(k)));
+        }
+    }
+
+    /**
+     * Добавляет прямоугольную комнату и соединяет ее с деревом коридоров
+     *
+     * @param left левый столбец комнаты
+     * @param top верхняя строка комнаты
+     * @param w ширина комнаты
+     * @param h высота комнаты
+     * @return номер новой комнаты
+     */
+    public int addRoom(int left, int top, int w, int h) {
+        if (w < 1 || h < 1 || left < 1 || top < 1 || left + w >= grid.cols() || top + h >= grid.rows()) {
+            throw new IllegalArgumentException("Комната " + w + "x" + h + " в (" + top + ";" + left
+                    + ") не помещается на карту " + grid.rows() + "x" + grid.cols());
+        }
+        double x = left + w / 2.0;
+        double y = top + h / 2.0;
+        if (overlaps(x, y, w, h)) {
+            throw new IllegalArgumentException("Комната " + w + "x" + h + " в (" + top + ";" + left
+                    + ") пересекает другую комнату");
+        }
+        int id = count++;
+        if (id == col.length) {
+            grow();
+        }
+        col[id] = left;
+        row[id] = top;
+        width[id] = w;
+        height[id] = h;
+        cx[id] = x;
+        cy[id] = y;
+        alive[id] = true;
+        links[id] = new int[4];
+        triangulation.add(x, y);
+        triangulation.insert(id + 4);
+        long key = roomKey(id);
+        register(key);
+        draw(key);
+        //ребра к соседям по триангуляции в порядке длины: ребро либо соединяет
+        //новую комнату с деревом, либо заменяет самое длинное ребро цикла
+        int[] neighbours = rooms(triangulation.neighbours(id + 4));
+        sortByCost(id, neighbours);
+        long[] removed = new long[neighbours.length];
+        int removedCount = 0;
+        for (int q : neighbours) {
+            int e = heaviestOnPath(id, q);
+            if (e == -1) {
+                link(id, q);
+            } else if (tree.weight(2 * e + 1) > cost(id, q)) {
+                removed[removedCount++] = corridorKey(edgeFrom[e], edgeTo[e]);
+                cut(e);
+                link(id, q);
+            } else {
+                continue;
+            }
+            key = corridorKey(id, q);
+            register(key);
+            draw(key);
+        }
+        for (int i = 0; i < removedCount; i++) {
+            unregister(removed[i]);
+        }
+        for (int i = 0; i < removedCount; i++) {
+            erase(removed[i]);
+        }
+        return id;
+    }
+
+    /**
+     * Удаляет комнату и ее коридоры и заново соединяет оставшиеся части дерева
+     *
+     * @param id номер комнаты
+     */
+    public void removeRoom(int id) {
+        if (!isRoom(id)) {
+            throw new IllegalArgumentException("Нет комнаты с номером " + id);
+        }
+        int[] neighbours = new int[degree[id]];
+        long[] removed = new long[neighbours.length + 1];
+        removed[0] = roomKey(id);
+        for (int i = 0; i < neighbours.length; i++) {
+            int e = links[id][0];
+            neighbours[i] = edgeFrom[e] == id ? edgeTo[e] : edgeFrom[e];
+            removed[i + 1] = corridorKey(id, neighbours[i]);
+            cut(e);
+        }
+        int[] polygon = triangulation.neighbours(id + 4);
+        int[] diagonals = triangulation.remove(id + 4);
+        alive[id] = false;
+        //кандидаты: стороны и диагонали звезды удаленной комнаты и все пары ее
+        //соседей по дереву (они гарантируют, что части дерева соединятся)
+        EdgeList candidates = new EdgeList(polygon.length + diagonals.length / 2 + neighbours.length * neighbours.length);
+        for (int i = 0; i < polygon.length; i++) {
+            addCandidate(candidates, polygon[i], polygon[(i + 1) % polygon.length]);
+        }
+        for (int i = 0; i < diagonals.length; i += 2) {
+            addCandidate(candidates, diagonals[i], diagonals[i + 1]);
+        }
+        for (int i = 0; i < neighbours.length; i++) {
+            for (int j = i + 1; j < neighbours.length; j++) {
+                candidates.add(neighbours[i], neighbours[j], cost(neighbours[i], neighbours[j]));
+            }
+        }
+        candidates.sortByCost();
+        //корни частей дерева нужно найти до того, как дерево изменится
+        int[] roots = new int[candidates.size() * 2];
+        for (int k = 0; k < candidates.size(); k++) {
+            roots[k * 2] = tree.root(2 * candidates.from(k));
+            roots[k * 2 + 1] = tree.root(2 * candidates.to(k));
+        }
+        int[] distinct = roots.clone();
+        Arrays.sort(distinct);
+        DisjointSet parts = new DisjointSet(distinct.length);
+        long[] added = new long[neighbours.length];
+        int addedCount = 0;
+        for (int k = 0; k < candidates.size(); k++) {
+            int a = Arrays.binarySearch(distinct, roots[k * 2]);
+            int b = Arrays.binarySearch(distinct, roots[k * 2 + 1]);
+            if (parts.union(a, b)) {
+                link(candidates.from(k), candidates.to(k));
+                added[addedCount++] = corridorKey(candidates.from(k), candidates.to(k));
+            }
+        }
+        for (long key : removed) {
+            unregister(key);
+        }
+        for (int i = 0; i < addedCount; i++) {
+            register(added[i]);
+        }
+        for (long key : removed) {
+            erase(key);
+        }
+        for (int i = 0; i < addedCount; i++) {
+            draw(added[i]);
+        }
+    }
+
+    /**
+     * @param id номер комнаты
+     * @return true, если комната с таким номером есть на карте
+     */
+    public boolean isRoom(int id) {
+        return id >= 0 && id < count && alive[id];
+    }
+
+    /**
+     * @return количество выданных номеров комнат, включая удаленные
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return текущие коридоры (ребра остовного дерева)
+     */
+    public EdgeList corridors() {
+        EdgeList result = new EdgeList(count);
+        for (int e = 0; e < edgeCount; e++) {
+            if (edgeFrom[e] != -1) {
+                result.add(edgeFrom[e], edgeTo[e], tree.weight(2 * e + 1));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Строит граф комнат для поиска пути по текущим комнатам и коридорам.
+     * Номера комнат в графе совпадают с номерами редактора, удаленные
+     * комнаты остаются в графе вершинами без ребер и без клеток.
+     *
+     * @return граф комнат и коридоров карты после правок
+     */
+    public NavigationGraph createNavigationGraph() {
+        RoomStore rooms = new RoomStore(count);
+        for (int i = 0; i < count; i++) {
+            rooms.add(cx[i], cy[i], alive[i] ? width[i] : 0, alive[i] ? height[i] : 0);
+        }
+        //редактор работает только с коридорами буквой L, поэтому длины не нужны
+        return new NavigationGraph(rooms, corridors(), null, grid.rows(), grid.cols());
+    }
+
+    /**
+     * @return редактируемая карта
+     */
+    public Grid getGrid() {
+        return grid;
+    }
+
+    /**
+     * Проверяет новую комнату на пересечение с комнатами вокруг нее так же,
+     * как {@link Room#isOverlapping(Room)}
+     */
+    private boolean overlaps(double x, double y, int w, int h) {
+        int r0 = (int) (y - h / 2.0) - 4;
+        int r1 = (int) (y + h / 2.0) + 4;
+        int c0 = (int) (x - w / 2.0) - 4;
+        int c1 = (int) (x + w / 2.0) + 4;
+        for (int tr = Math.max(r0, 0) >>> TILE_SHIFT; tr <= Math.min(r1, grid.rows() - 1) >>> TILE_SHIFT; tr++) {
+            for (int tc = Math.max(c0, 0) >>> TILE_SHIFT; tc <= Math.min(c1, grid.cols() - 1) >>> TILE_SHIFT; tc++) {
+                int tile = tr * tileCols + tc;
+                for (int i = 0; i < tileSize[tile]; i++) {
+                    long key = tiles[tile][i];
+                    if ((key & ROOM) != ROOM) {
+                        continue;
+                    }
+                    int j = (int) (key >>> 32);
+                    if (!((y + h / 2.0 + 2 < cy[j] - height[j] / 2.0)
+                            || (y - h / 2.0 - 2 > cy[j] + height[j] / 2.0)
+                            || (x + w / 2.0 + 2 < cx[j] - width[j] / 2.0)
+                            || (x - w / 2.0 - 2 > cx[j] + width[j] / 2.0))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Переводит вершины триангуляции в номера комнат, отбрасывая углы
+     * суперпозиции
+     */
+    private int[] rooms(int[] vertices) {
+        int n = 0;
+        for (int p : vertices) {
+            if (!triangulation.isCorner(p)) {
+                vertices[n++] = p - 4;
+            }
+        }
+        return Arrays.copyOf(vertices, n);
+    }
+
+    /**
+     * Добавляет ребро звезды в список кандидатов, если оба его конца - комнаты
+     */
+    private void addCandidate(EdgeList candidates, int p, int q) {
+        if (!triangulation.isCorner(p) && !triangulation.isCorner(q)) {
+            candidates.add(p - 4, q - 4, cost(p - 4, q - 4));
+        }
+    }
+
+    /**
+     * Сортирует комнаты вставками по расстоянию до комнаты id
+     */
+    private void sortByCost(int id, int[] a) {
+        for (int i = 1; i < a.length; i++) {
+            int value = a[i];
+            double c = cost(id, value);
+            int j = i - 1;
+            while (j >= 0 && cost(id, a[j]) > c) {
+                a[j + 1] = a[j];
+                j--;
+            }
+            a[j + 1] = value;
+        }
+    }
+
+    private double cost(int a, int b) {
+        double dx = cx[a] - cx[b];
+        double dy = cy[a] - cy[b];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Ищет самое длинное ребро на пути между комнатами u и v в дереве
+     *
+     * @return номер самого длинного ребра; -1, если комнаты лежат в разных
+     * деревьях
+     */
+    private int heaviestOnPath(int u, int v) {
+        if (!tree.connected(2 * u, 2 * v)) {
+            return -1;
+        }
+        //у вершин комнат вес -бесконечность, поэтому самая тяжелая вершина - ребро
+        return (tree.heaviest(2 * u, 2 * v) - 1) / 2;
+    }
+
+    /**
+     * Соединяет ребром комнаты из разных деревьев
+     */
+    private void link(int a, int b) {
+        int e = freeCount > 0 ? freeEdges[--freeCount] : edgeCount++;
+        edgeFrom[e] = a;
+        edgeTo[e] = b;
+        tree.reset(2 * e + 1, cost(a, b));
+        tree.link(2 * a, 2 * e + 1);
+        tree.link(2 * e + 1, 2 * b);
+        addLink(a, e);
+        addLink(b, e);
+    }
+
+    /**
+     * Удаляет ребро e из дерева
+     */
+    private void cut(int e) {
+        int a = edgeFrom[e];
+        int b = edgeTo[e];
+        tree.cut(2 * a, 2 * e + 1);
+        tree.cut(2 * e + 1, 2 * b);
+        removeLink(a, e);
+        removeLink(b, e);
+        edgeFrom[e] = -1;
+        freeEdges[freeCount++] = e;
+    }
+
+    private void addLink(int a, int b) {
+        if (degree[a] == links[a].length) {
+            links[a] = Arrays.copyOf(links[a], degree[a] * 2);
+        }
+        links[a][degree[a]++] = b;
+    }
+
+    private void removeLink(int a, int b) {
+        for (int i = 0; i < degree[a]; i++) {
+            if (links[a][i] == b) {
+                links[a][i] = links[a][--degree[a]];
+                return;
+            }
+        }
+    }
+
+    private static long roomKey(int id) {
+        return ((long) id << 32) | ROOM;
+    }
+
+    private static long corridorKey(int a, int b) {
+        return ((long) Math.min(a, b) << 32) | Math.max(a, b);
+    }
+
+    /**
+     * Записывает в rects прямоугольники фигуры по четыре числа: первая строка,
+     * строка после последней, первый столбец, столбец после последнего
+     *
+     * @return количество прямоугольников
+     */
+    private int shape(long key) {
+        int a = (int) (key >>> 32);
+        if ((key & ROOM) == ROOM) {
+            rects[0] = row[a];
+            rects[1] = row[a] + height[a];
+            rects[2] = col[a];
+            rects[3] = col[a] + width[a];
+            return 1;
+        }
+        //коридор рисуется от комнаты с меньшим номером, как в MapGenerator
+        int b = (int) key;
+        MapGenerator.corridorSpans(cx[a], cy[a], cx[b], cy[b], spans);
+        int n = 0;
+        if (spans[1] < spans[2]) {
+            rects[0] = spans[0];
+            rects[1] = spans[0] + 1;
+            rects[2] = spans[1];
+            rects[3] = spans[2];
+            n++;
+        }
+        if (spans[4] < spans[5]) {
+            rects[n * 4] = spans[4];
+            rects[n * 4 + 1] = spans[5];
+            rects[n * 4 + 2] = spans[3];
+            rects[n * 4 + 3] = spans[3] + 1;
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Добавляет фигуру во все квадраты индекса, которые задевают ее
+     * прямоугольники
+     */
+    private void register(long key) {
+        int n = shape(key);
+        for (int r = 0; r < n; r++) {
+            int r0 = rects[r * 4] >>> TILE_SHIFT;
+            int r1 = (rects[r * 4 + 1] - 1) >>> TILE_SHIFT;
+            int c0 = rects[r * 4 + 2] >>> TILE_SHIFT;
+            int c1 = (rects[r * 4 + 3] - 1) >>> TILE_SHIFT;
+            for (int tr = r0; tr <= r1; tr++) {
+                for (int tc = c0; tc <= c1; tc++) {
+                    int tile = tr * tileCols + tc;
+                    if (tiles[tile] == null) {
+                        tiles[tile] = new long[4];
+                    } else if (tileSize[tile] == tiles[tile].length) {
+                        tiles[tile] = Arrays.copyOf(tiles[tile], tileSize[tile] * 2);
+                    }
+                    tiles[tile][tileSize[tile]++] = key;
+                }
+            }
+        }
+    }
+
+    private void unregister(long key) {
+        int n = shape(key);
+        for (int r = 0; r < n; r++) {
+            int r0 = rects[r * 4] >>> TILE_SHIFT;
+            int r1 = (rects[r * 4 + 1] - 1) >>> TILE_SHIFT;
+            int c0 = rects[r * 4 + 2] >>> TILE_SHIFT;
+            int c1 = (rects[r * 4 + 3] - 1) >>> TILE_SHIFT;
+            for (int tr = r0; tr <= r1; tr++) {
+                for (int tc = c0; tc <= c1; tc++) {
+                    int tile = tr * tileCols + tc;
+                    long[] keys = tiles[tile];
+                    for (int i = 0; i < tileSize[tile]; i++) {
+                        if (keys[i] == key) {
+                            keys[i] = keys[--tileSize[tile]];
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void draw(long key) {
+        draw(key, 0, grid.rows(), 0, grid.cols());
+    }
+
+    /**
+     * Рисует часть фигуры внутри прямоугольника r0..r1 - 1, c0..c1 - 1
+     */
+    private void draw(long key, int r0, int r1, int c0, int c1) {
+        int n = shape(key);
+        for (int r = 0; r < n; r++) {
+            int from = Math.max(rects[r * 4 + 2], c0);
+            int to = Math.min(rects[r * 4 + 3], c1);
+            for (int i = Math.max(rects[r * 4], r0); i < Math.min(rects[r * 4 + 1], r1); i++) {
+                grid.fillRow(i, from, to);
+            }
+        }
+    }
+
+    /**
+     * Стирает прямоугольники удаленной фигуры и заново рисует в них фигуры из
+     * индекса. Фигура уже должна быть удалена из индекса.
+     */
+    private void erase(long key) {
+        int n = shape(key);
+        int[] dirty = Arrays.copyOf(rects, n * 4);
+        for (int r = 0; r < n; r++) {
+            int r0 = dirty[r * 4];
+            int r1 = dirty[r * 4 + 1];
+            int c0 = dirty[r * 4 + 2];
+            int c1 = dirty[r * 4 + 3];
+            for (int i = r0; i < r1; i++) {
+                grid.clearRow(i, c0, c1);
+            }
+            for (int tr = r0 >>> TILE_SHIFT; tr <= (r1 - 1) >>> TILE_SHIFT; tr++) {
+                for (int tc = c0 >>> TILE_SHIFT; tc <= (c1 - 1) >>> TILE_SHIFT; tc++) {
+                    int tile = tr * tileCols + tc;
+                    for (int i = 0; i < tileSize[tile]; i++) {
+                        draw(tiles[tile][i], r0, r1, c0, c1);
+                    }
+                }
+            }
+        }
+    }
+
+    private void grow() {
+        int capacity = col.length * 2;
+        col = Arrays.copyOf(col, capacity);
+        row = Arrays.copyOf(row, capacity);
+        width = Arrays.copyOf(width, capacity);
+        height = Arrays.copyOf(height, capacity);
+        cx = Arrays.copyOf(cx, capacity);
+        cy = Arrays.copyOf(cy, capacity);
+        alive = Arrays.copyOf(alive, capacity);
+        links = Arrays.copyOf(links, capacity);
+        degree = Arrays.copyOf(degree, capacity);
+        edgeFrom = Arrays.copyOf(edgeFrom, capacity);
+        edgeTo = Arrays.copyOf(edgeTo, capacity);
+        freeEdges = Arrays.copyOf(freeEdges, capacity);
+        tree.grow(capacity * 2);
+    }
+}
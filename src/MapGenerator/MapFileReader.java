@@ -0,0 +1,268 @@
+package MapGenerator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Чтение карты в двоичном формате {@link MapFileWriter} через отображение
+ * файла в память. В куче хранится только заголовок и таблица смещений строк,
+ * сами строки читаются из отображенных областей по запросу, поэтому можно
+ * прочитать любую строку или прямоугольник огромной карты, не загружая ее
+ * целиком. Файл отображается кусками не больше SEGMENT байт, каждый кусок
+ * содержит целое число строк.
+ *
+ * Все чтения идут по абсолютным позициям и не меняют состояние буферов,
+ * поэтому один открытый файл можно читать из нескольких потоков.
+ *
+ * @author K1ta
+ */
+public class MapFileReader implements Closeable {
+
+    private static final long SEGMENT = 1L << 30; //наибольший размер отображаемого куска
+
+    private final FileChannel channel;
+    private final int cols;          //ширина карты
+    private final int rows;          //высота карты
+    private final int stride;        //количество слов long в строке
+    private final long seed;         //зерно генератора
+    private final int rooms;         //количество комнат
+    private final int minSize;       //минимальный размер комнаты
+    private final int maxSize;       //максимальный размер комнаты
+    private final long[] offsets;    //смещения строк от начала файла
+    private final int[] segmentOf;   //кусок, в котором лежит строка
+    private final MappedByteBuffer[] segments; //отображенные куски файла
+    private final long[] segmentBase;  //смещение куска от начала файла
+
+    /**
+     * Открывает файл и читает заголовок и таблицу смещений строк
+     *
+     * @param name имя файла
+     * @throws IOException если файл не удалось прочитать или он не в формате
+     * карты
+     */
+    public MapFileReader(String name) throws IOException {
+        channel = FileChannel.open(Paths.get(name), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, MapFileWriter.HEADER);
+            if (header.getInt(0) != MapFileWriter.MAGIC) {
+                throw new IOException("Файл " + name + " не является картой");
+            }
+            if (header.getShort(4) != MapFileWriter.VERSION) {
+                throw new IOException("Неизвестная версия формата карты: " + header.getShort(4));
+            }
+            cols = header.getInt(8);
+            rows = header.getInt(12);
+            seed = header.getLong(16);
+            rooms = header.getInt(24);
+            minSize = header.getInt(28);
+            maxSize = header.getInt(32);
+            stride = (cols + 63) >>> 6;
+            offsets = new long[rows + 1];
+            channel.map(FileChannel.MapMode.READ_ONLY, MapFileWriter.HEADER, (rows + 1L) * 8)
+                    .asLongBuffer().get(offsets);
+            //куски отображения, каждый из целых строк
+            segmentOf = new int[rows];
+            ArrayList<MappedByteBuffer> mapped = new ArrayList<>();
+            ArrayList<Long> bases = new ArrayList<>();
+            int first = 0;
+            while (first < rows) {
+                int last = first;
+                while (last < rows && offsets[last + 1] - offsets[first] <= SEGMENT) {
+                    segmentOf[last] = mapped.size();
+                    last++;
+                }
+                if (last == first) {
+                    throw new IOException("Строка " + first + " больше " + SEGMENT + " байт");
+                }
+                mapped.add(channel.map(FileChannel.MapMode.READ_ONLY, offsets[first], offsets[last] - offsets[first]));
+                bases.add(offsets[first]);
+                first = last;
+            }
+            segments = mapped.toArray(new MappedByteBuffer[0]);
+            segmentBase = new long[bases.size()];
+            for (int i = 0; i < segmentBase.length; i++) {
+                segmentBase[i] = bases.get(i);
+            }
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * @return ширина карты
+     */
+    public int cols() {
+        return cols;
+    }
+
+    /**
+     * @return высота карты
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * @return количество слов long в одной строке
+     */
+    public int stride() {
+        return stride;
+    }
+
+    /**
+     * @return зерно, с которым была сгенерирована карта
+     */
+    public long seed() {
+        return seed;
+    }
+
+    /**
+     * @return количество комнат на карте
+     */
+    public int rooms() {
+        return rooms;
+    }
+
+    /**
+     * @return минимальный размер комнаты
+     */
+    public int minSize() {
+        return minSize;
+    }
+
+    /**
+     * @return максимальный размер комнаты
+     */
+    public int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param row номер строки
+     * @param col номер столбца
+     * @return значение ячейки
+     */
+    public boolean get(int row, int col) {
+        if (row < 0 || row >= rows || col < 0 || col >= cols) {
+            throw new IndexOutOfBoundsException("(" + row + ";" + col + ")");
+        }
+        ByteBuffer segment = segments[segmentOf[row]];
+        int pos = (int) (offsets[row] - segmentBase[segmentOf[row]]);
+        if (segment.get(pos) == MapFileWriter.BITS) {
+            return (segment.getLong(pos + 1 + (col >>> 6) * 8) & (1L << col)) != 0;
+        }
+        pos++;
+        int start = 0;
+        boolean value = false;
+        while (true) {
+            int run = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = segment.get(pos++);
+                run |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            if (col < start + run) {
+                return value;
+            }
+            start += run;
+            value = !value;
+        }
+    }
+
+    /**
+     * Читает строку row в массив слов: бит j слова w - ячейка w * 64 + j
+     *
+     * @param row номер строки
+     * @param words массив длиной не меньше stride()
+     */
+    public void readRow(int row, long[] words) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("Строка " + row);
+        }
+        ByteBuffer segment = segments[segmentOf[row]];
+        int pos = (int) (offsets[row] - segmentBase[segmentOf[row]]);
+        if (segment.get(pos) == MapFileWriter.BITS) {
+            for (int w = 0; w < stride; w++) {
+                words[w] = segment.getLong(pos + 1 + w * 8);
+            }
+            return;
+        }
+        pos++;
+        for (int w = 0; w < stride; w++) {
+            words[w] = 0;
+        }
+        int col = 0;
+        boolean value = false;
+        while (col < cols) {
+            int run = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = segment.get(pos++);
+                run |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            if (value) {
+                BitGrid.fill(words, 0, col, col + run);
+            }
+            col += run;
+            value = !value;
+        }
+    }
+
+    /**
+     * Читает прямоугольную область карты
+     *
+     * @param row первая строка области
+     * @param col первый столбец области
+     * @param height количество строк
+     * @param width количество столбцов
+     * @return область в виде отдельной карты height x width
+     */
+    public BitGrid readRect(int row, int col, int height, int width) {
+        if (row < 0 || col < 0 || height < 0 || width < 0 || row + height > rows || col + width > cols) {
+            throw new IndexOutOfBoundsException("(" + row + ";" + col + ") " + height + "x" + width);
+        }
+        BitGrid rect = new BitGrid(height, width);
+        long[] words = new long[stride + 1];
+        for (int i = 0; i < height; i++) {
+            readRow(row + i, words);
+            words[stride] = 0;
+            for (int w = 0; w < rect.stride(); w++) {
+                //64 бита, начиная со столбца col + w * 64
+                int bit = col + w * 64;
+                int index = bit >>> 6;
+                int shift = bit & 63;
+                long value = words[index] >>> shift;
+                if (shift != 0) {
+                    value |= words[index + 1] << (64 - shift);
+                }
+                rect.setWord(i, w, value);
+            }
+        }
+        return rect;
+    }
+
+    /**
+     * Читает карту целиком
+     *
+     * @return вся карта
+     */
+    public BitGrid readAll() {
+        return readRect(0, 0, rows, cols);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,203 @@
+package MapGenerator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Запись карты в компактном двоичном формате. Формат (все числа big-endian):
+ *
+ * <pre>
+ * 0   int   сигнатура 'MGMP'
+ * 4   short версия формата (1)
+ * 6   short флаги (0)
+ * 8   int   ширина карты (столбцы)
+ * 12  int   высота карты (строки)
+ * 16  long  зерно генератора
+ * 24  int   количество комнат на карте
+ * 28  int   минимальный размер комнаты
+ * 32  int   максимальный размер комнаты
+ * 36  int   зарезервировано (0)
+ * 40  long[высота + 1] смещения строк от начала файла, последнее - конец файла
+ *     строки
+ * </pre>
+ *
+ * Каждая строка начинается с байта кодировки. BITS - строка записана
+ * битами: stride слов long, бит j слова w - ячейка w * 64 + j. RLE - строка
+ * записана длинами серий одинаковых ячеек (беззнаковые varint), серии
+ * чередуются, первая серия - непроходимые ячейки (может быть нулевой). Для
+ * каждой строки выбирается более короткая кодировка.
+ *
+ * @author K1ta
+ */
+public class MapFileWriter {
+
+    static final int MAGIC = 0x4D474D50;   //'MGMP'
+    static final short VERSION = 1;
+    static final int HEADER = 40;          //размер заголовка до таблицы строк
+    static final byte BITS = 0;            //строка записана битами
+    static final byte RLE = 1;             //строка записана длинами серий
+    private static final int BLOCK = 1 << 16; //минимальный размер буфера
+
+    private final Grid grid;      //записываемая карта
+    private final long seed;         //зерно генератора
+    private final int rooms;         //количество комнат
+    private final int minSize;       //минимальный размер комнаты
+    private final int maxSize;       //максимальный размер комнаты
+    private final ByteBuffer block;  //буфер записи
+
+    /**
+     *
+     * @param grid карта для записи
+     * @param seed зерно, с которым была сгенерирована карта
+     * @param rooms количество комнат на карте (без удаленных при разделении)
+     * @param minSize минимальный размер комнаты
+     * @param maxSize максимальный размер комнаты
+     */
+    public MapFileWriter(Grid grid, long seed, int rooms, int minSize, int maxSize) {
+        this.grid = grid;
+        this.seed = seed;
+        this.rooms = rooms;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        block = ByteBuffer.allocate(Math.max(BLOCK, 1 + grid.stride() * 8));
+    }
+
+    /**
+     * Записывает карту в файл с именем name, перезаписывая его
+     *
+     * @param name имя файла
+     * @throws IOException если файл не удалось создать или записать
+     */
+    public void write(String name) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(name), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            write(channel);
+        }
+    }
+
+    /**
+     * Записывает карту в канал. Сначала считаются размеры всех строк, поэтому
+     * таблица смещений пишется до строк и канал не обязан поддерживать
+     * перемотку. Канал не закрывается.
+     *
+     * @param channel канал для записи
+     * @throws IOException если запись не удалась
+     */
+    public void write(WritableByteChannel channel) throws IOException {
+        block.clear();
+        block.putInt(MAGIC);
+        block.putShort(VERSION);
+        block.putShort((short) 0);
+        block.putInt(grid.cols());
+        block.putInt(grid.rows());
+        block.putLong(seed);
+        block.putInt(rooms);
+        block.putInt(minSize);
+        block.putInt(maxSize);
+        block.putInt(0);
+        //таблица смещений строк; размеры строк в RLE запоминаются, чтобы не
+        //проходить каждую строку второй раз при выборе кодировки
+        int[] runs = new int[grid.rows()];
+        long offset = HEADER + (grid.rows() + 1L) * 8;
+        for (int i = 0; i <= grid.rows(); i++) {
+            if (block.remaining() < 8) {
+                flush(channel);
+            }
+            block.putLong(offset);
+            if (i < grid.rows()) {
+                runs[i] = runsLength(i);
+                offset += 1 + Math.min(runs[i], grid.stride() * 8);
+            }
+        }
+        //строки
+        for (int i = 0; i < grid.rows(); i++) {
+            if (block.remaining() < 1 + grid.stride() * 8) {
+                flush(channel);
+            }
+            if (runs[i] < grid.stride() * 8) {
+                block.put(RLE);
+                putRuns(i);
+            } else {
+                block.put(BITS);
+                for (int w = 0; w < grid.stride(); w++) {
+                    block.putLong(grid.word(i, w));
+                }
+            }
+        }
+        flush(channel);
+    }
+
+    private void flush(WritableByteChannel channel) throws IOException {
+        block.flip();
+        while (block.hasRemaining()) {
+            channel.write(block);
+        }
+        block.clear();
+    }
+
+    /**
+     * @param row номер строки
+     * @return размер строки в кодировке RLE
+     */
+    private int runsLength(int row) {
+        int length = 0;
+        int col = 0;
+        boolean value = false;
+        while (col < grid.cols()) {
+            int end = nextChange(row, col, value);
+            length += varintLength(end - col);
+            col = end;
+            value = !value;
+        }
+        return length;
+    }
+
+    private void putRuns(int row) {
+        int col = 0;
+        boolean value = false;
+        while (col < grid.cols()) {
+            int end = nextChange(row, col, value);
+            int run = end - col;
+            while ((run & ~0x7F) != 0) {
+                block.put((byte) ((run & 0x7F) | 0x80));
+                run >>>= 7;
+            }
+            block.put((byte) run);
+            col = end;
+            value = !value;
+        }
+    }
+
+    /**
+     * @param row номер строки
+     * @param col столбец, с которого начинается серия
+     * @param value значение ячеек серии
+     * @return первый столбец после col, в котором значение отличается от
+     * value, или ширина карты
+     */
+    private int nextChange(int row, int col, boolean value) {
+        int w = col >>> 6;
+        long bits = (value ? ~grid.word(row, w) : grid.word(row, w)) & (-1L << col);
+        while (bits == 0) {
+            w++;
+            if (w == grid.stride()) {
+                return grid.cols();
+            }
+            bits = value ? ~grid.word(row, w) : grid.word(row, w);
+        }
+        return Math.min(grid.cols(), w * 64 + Long.numberOfTrailingZeros(bits));
+    }
+
+    private static int varintLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+}
@@ -1,8 +1,17 @@
 package MapGenerator;
 
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
  *
@@ -10,29 +19,173 @@ import java.util.ArrayList;
  */
 public class MapGenerator {
 
-    private ArrayList<Room> rooms; //список комнат
-    private ArrayList<Triangle> triangles; //список треугольников
-    private ArrayList<Edge> edges; //список граней
-    private ArrayList<Vector2> vertices; //список вершин
+    private static final int SEPARATION_CHUNK = 512; //комнат в одной задаче параллельного разделения
+
+    private RoomStore rooms; //комнаты в виде параллельных массивов
+    private EdgeList edges; //список граней (пары номеров комнат): ребра остовного дерева и петли
+    private int[] corridorLengths; //длины проложенных коридоров по ребрам edges, null - все коридоры буквой L
     private final int NumberOfRooms; //количество комнат для генерации
     private final int minSize; //минимальный размер комнаты
     private final int maxSize; //максимальный размер комнаты
-    private boolean[][] map; //массив карты подземелья
+    private Grid map; //битовая карта подземелья
+    private String gridFile; //файл для карты в памяти вне кучи, null - карта в куче
+    private int mapRows; //количество строк карты
+    private int mapCols; //количество столбцов карты
+    private final long seed; //зерно генератора
+    private final SplittableRandom roomRandom; //случайные числа для генерации комнат
+    private final SplittableRandom separationRandom; //случайные числа для разделения комнат
+    private final SplittableRandom loopRandom; //случайные числа для выбора петель
+    private GenerationMetrics metrics; //длительности этапов и счетчики последней генерации
+    private GenerationListener listener; //получатель метрик, может быть null
+    private SeparationMode separationMode = SeparationMode.CLASSIC; //способ разделения комнат
+    private CorridorMode corridorMode = CorridorMode.STRAIGHT; //способ построения коридоров
+    private LoopMode loopMode = LoopMode.SHORTEST; //способ выбора петель
+    private double loopFraction; //доля ребер вне дерева, которые становятся петлями
+    private EdgeList triangulationEdges; //все ребра триангуляции по возрастанию длины, если нужны петли
+    private long[] treeEdges; //биты ребер triangulationEdges, которые вошли в дерево
+    private int maxSeparationPasses; //наибольшее количество проходов разделения, 0 - без ограничения
+    private long maxSeparationNanos; //наибольшее время разделения, 0 - без ограничения
+    private ForkJoinPool pool; //пул параллельных этапов, null - общий пул
+    private int parallelTriangulationRooms = 100000; //с какого количества комнат триангуляция строится параллельно
 
     /**
+     * Создает генератор со случайным зерном
      *
      * @param NumberOfRooms количество генерируемых комнат
      * @param minSize минимальный размер одной комнаты
      * @param maxSize максимальеый размер одной комнаты
      */
     public MapGenerator(int NumberOfRooms, int minSize, int maxSize) {
-        rooms = new ArrayList<>();
-        triangles = new ArrayList<>();
-        edges = new ArrayList<>();
-        vertices = new ArrayList<>();
+        this(new SplittableRandom().nextLong(), NumberOfRooms, minSize, maxSize);
+    }
+
+    /**
+     * Создает генератор с заданным зерном. Одинаковые зерно и параметры всегда
+     * дают одинаковую карту. Каждый генератор использует свои собственные
+     * генераторы случайных чисел, поэтому генераторы в разных потоках не
+     * мешают друг другу.
+     *
+     * @param seed зерно генератора
+     * @param NumberOfRooms количество генерируемых комнат
+     * @param minSize минимальный размер одной комнаты
+     * @param maxSize максимальеый размер одной комнаты
+     */
+    public MapGenerator(long seed, int NumberOfRooms, int minSize, int maxSize) {
+        rooms = new RoomStore(NumberOfRooms);
+        edges = new EdgeList();
         this.NumberOfRooms = NumberOfRooms;
         this.minSize = minSize;
         this.maxSize = maxSize;
+        this.seed = seed;
+        //у каждого этапа свой поток случайных чисел, поэтому изменение одного
+        //этапа не меняет случайные числа другого
+        SplittableRandom random = new SplittableRandom(seed);
+        roomRandom = random.split();
+        separationRandom = random.split();
+        loopRandom = random.split();
+        metrics = new GenerationMetrics();
+    }
+
+    /**
+     * Устанавливает получателя метрик генерации. Без получателя генератор
+     * считает только счетчики, а время этапов не замеряет.
+     *
+     * @param listener получатель метрик или null
+     */
+    public void setListener(GenerationListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param mode способ разделения комнат
+     */
+    public void setSeparationMode(SeparationMode mode) {
+        separationMode = mode;
+    }
+
+    /**
+     * @param mode способ построения коридоров
+     */
+    public void setCorridorMode(CorridorMode mode) {
+        corridorMode = mode;
+    }
+
+    /**
+     * @return способ построения коридоров
+     */
+    public CorridorMode getCorridorMode() {
+        return corridorMode;
+    }
+
+    /**
+     * Добавляет к остовному дереву коридоров петли из остальных ребер
+     * триангуляции, чтобы через подземелье было больше одного пути
+     *
+     * @param mode способ выбора ребер
+     * @param fraction доля ребер вне дерева от 0 до 1; 0 - без петель
+     */
+    public void setLoops(LoopMode mode, double fraction) {
+        if (!(fraction >= 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("Доля петель должна быть от 0 до 1: " + fraction);
+        }
+        loopMode = mode;
+        loopFraction = fraction;
+    }
+
+    /**
+     * @param pool пул для параллельных этапов ({@link SeparationMode#PARALLEL}
+     * и {@link ParallelTriangulation}); null - общий ForkJoinPool
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Задает, с какого количества комнат вместо {@link Triangulation}
+     * используется {@link ParallelTriangulation}. Обе дают одинаковые ребра,
+     * кроме диагоналей четырехугольников, вершины которых лежат на одной
+     * окружности.
+     *
+     * @param rooms наименьшее количество комнат для параллельной триангуляции
+     */
+    public void setParallelTriangulationRooms(int rooms) {
+        parallelTriangulationRooms = rooms;
+    }
+
+    /**
+     * Задает файл, в котором createMap создает карту вместо массива в куче
+     * ({@link MappedBitGrid}). Коридоры и комнаты пишутся прямо в файл,
+     * поэтому размер карты ограничен диском, а не -Xmx. Файл закрывает тот,
+     * кто забирает карту через {@link #getGrid()}.
+     *
+     * @param name имя файла или null для карты в куче
+     */
+    public void setGridFile(String name) {
+        gridFile = name;
+    }
+
+    private ForkJoinPool pool() {
+        return pool != null ? pool : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * Ограничивает разделение комнат. Если комнаты не успели разойтись за
+     * отведенные проходы или время, то комнаты, которые все еще пересекаются,
+     * удаляются из карты.
+     *
+     * @param maxPasses наибольшее количество проходов, 0 - без ограничения
+     * @param maxNanos наибольшее время в наносекундах, 0 - без ограничения
+     */
+    public void setSeparationBudget(int maxPasses, long maxNanos) {
+        maxSeparationPasses = maxPasses;
+        maxSeparationNanos = maxNanos;
+    }
+
+    /**
+     * @return длительности этапов и счетчики последней генерации
+     */
+    public GenerationMetrics getMetrics() {
+        return metrics;
     }
 
     /**
@@ -41,14 +194,14 @@ public class MapGenerator {
      * до maxSize. Позиции комнат генерируются в квадрате с центром в точке
      * (0,0) и стороной minSize * 2
      */
-    private void generateRooms() {
+    void generateRooms() {
         for (int i = 0; i < NumberOfRooms; i++) {
             //генерация размера
-            int xSize = minSize + (int) (Math.random() * (maxSize - minSize + 1));
-            int ySize = minSize + (int) (Math.random() * (maxSize - minSize + 1));
+            int xSize = minSize + roomRandom.nextInt(maxSize - minSize + 1);
+            int ySize = minSize + roomRandom.nextInt(maxSize - minSize + 1);
             //генерация координат
-            double xPos = (int) (Math.random() * minSize + 1) * 2 - minSize;
-            double yPos = (int) (Math.random() * minSize + 1) * 2 - minSize;
+            double xPos = (roomRandom.nextInt(minSize) + 1) * 2 - minSize;
+            double yPos = (roomRandom.nextInt(minSize) + 1) * 2 - minSize;
             if (xSize % 2 == 1) {
                 xPos += 0.5;
             }
@@ -56,34 +209,330 @@ public class MapGenerator {
                 yPos += 0.5;
             }
             //добавление сгенерированной комнаты в список комнат
-            rooms.add(new Room(new Vector2(xPos, yPos), new Vector2(xSize, ySize)));
+            rooms.add(xPos, yPos, xSize, ySize);
         }
     }
 
     /**
-     * Функция разделения комнат. Использует два цикла foreach для определения
-     * пересекающихся комнат. Если комнаты пересекаются, то для них
-     * высчитывается смещение. После окончания циклов foreach каждая комната
-     * сдвигается на свое смещение. После чего цикл запускается заново.
+     * Функция разделения комнат. Комнаты раскладываются по ячейкам
+     * пространственного хеша со стороной, равной наибольшему расстоянию между
+     * центрами пересекающихся комнат, поэтому каждую комнату достаточно
+     * проверить только с комнатами из ее ячейки и восьми соседних. Проходы
+     * разделения (см. {@link SeparationMode}) повторяются, пока остаются
+     * пересекающиеся комнаты.
+     *
+     * Если задан бюджет (см. {@link #setSeparationBudget(int, long)}) и он
+     * исчерпан, то оставшиеся пересекающиеся комнаты удаляются, чтобы между
+     * любыми двумя комнатами карты оставался зазор.
      */
-    private void separateRooms() {
+    void separateRooms() {
+        int n = rooms.size();
+        //наибольшая сторона комнаты плюс зазор, который проверяет isOverlapping()
+        double cellSize = 0;
+        for (int i = 0; i < n; i++) {
+            cellSize = Math.max(cellSize, Math.max(rooms.width[i], rooms.height[i]));
+        }
+        long start = maxSeparationNanos > 0 ? System.nanoTime() : 0;
+        if (separationMode == SeparationMode.FAST) {
+            placeRooms(start, cellSize + 2);
+            return;
+        }
+        SpatialHash grid = new SpatialHash(cellSize + 2, n);
+        for (int i = 0; i < n; i++) {
+            grid.insert(i, rooms.x[i], rooms.y[i]);
+        }
+        OffsetTask[] tasks = null;
+        if (separationMode == SeparationMode.PARALLEL) {
+            tasks = new OffsetTask[(n + SEPARATION_CHUNK - 1) / SEPARATION_CHUNK];
+            for (int k = 0; k < tasks.length; k++) {
+                tasks[k] = new OffsetTask(grid, k * SEPARATION_CHUNK, Math.min(n, (k + 1) * SEPARATION_CHUNK));
+            }
+        }
+        int passes = 0;
         boolean separated = false;
         while (!separated) {
-            separated = true;
-            for (Room room1 : rooms) {
-                for (Room room2 : rooms) {
-                    //если room1 пересекает room2, то вызывается функция computeSeparation()
-                    if (room1.isOverlapping(room2) && rooms.indexOf(room1) != rooms.indexOf(room2)) {
-                        computeSeparation(room1, room2);
-                        separated = false;
+            if ((maxSeparationPasses > 0 && passes == maxSeparationPasses)
+                    || (maxSeparationNanos > 0 && System.nanoTime() - start > maxSeparationNanos)) {
+                dropOverlapping(grid);
+                return;
+            }
+            passes++;
+            metrics.separationPasses++;
+            separated = tasks == null ? offsetPass(grid) : parallelOffsetPass(grid, tasks);
+        }
+    }
+
+    /**
+     * Один проход исходного разделения. Если комнаты пересекаются, то для них
+     * высчитывается смещение. После проверки всех комнат каждая комната
+     * сдвигается на свое смещение и при необходимости переносится в новую
+     * ячейку.
+     *
+     * @return true, если пересекающихся комнат не было
+     */
+    private boolean offsetPass(SpatialHash grid) {
+        int n = rooms.size();
+        //количество проверок пересечения, копится локально и записывается в конце
+        long tests = 0;
+        boolean separated = true;
+        for (int i = 0; i < n; i++) {
+            int cx = grid.cellX(rooms.x[i]);
+            int cy = grid.cellY(rooms.y[i]);
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int j = grid.first(cx + dx, cy + dy); j != -1; j = grid.next(j)) {
+                        tests++;
+                        //если комната i пересекает комнату j, то вызывается функция computeSeparation()
+                        if (j != i && rooms.isOverlapping(i, j)) {
+                            computeSeparation(i, j);
+                            separated = false;
+                        }
                     }
                 }
             }
-            //в конце цикла каждая комната сдвигается на вектор offset
-            for (Room room : rooms) {
-                room.applyOffset();
+        }
+        //в конце цикла каждая комната сдвигается на вектор offset
+        for (int i = 0; i < n; i++) {
+            rooms.applyOffset(i);
+            grid.update(i, rooms.x[i], rooms.y[i]);
+        }
+        metrics.overlapTests += tests;
+        return separated;
+    }
+
+    /**
+     * Один проход исходного разделения, в котором смещения считаются
+     * параллельно: каждая задача отвечает за свой диапазон комнат и меняет
+     * смещения только своих комнат, а позиции комнат в это время только
+     * читаются. Случайные смещения совпадающих комнат зависят от порядка
+     * обращений к separationRandom, поэтому задачи только запоминают такие
+     * пары, а смещения для них добавляются после задач в том же порядке, что
+     * и в {@link #offsetPass(SpatialHash)}. Поэтому результат не отличается
+     * от последовательного.
+     *
+     * @return true, если пересекающихся комнат не было
+     */
+    private boolean parallelOffsetPass(SpatialHash grid, OffsetTask[] tasks) {
+        for (OffsetTask task : tasks) {
+            task.reinitialize();
+        }
+        pool().invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ForkJoinTask.invokeAll(tasks);
+            }
+        });
+        boolean separated = true;
+        for (OffsetTask task : tasks) {
+            metrics.overlapTests += task.tests;
+            separated &= !task.overlapping;
+            for (int k = 0; k < task.coincidentCount; k++) {
+                long pair = task.coincident[k];
+                addRandomOffset((int) (pair >>> 32), (int) pair);
+            }
+        }
+        //сдвиг комнат и перенос в новые ячейки остаются последовательными,
+        //потому что пространственный хеш не потокобезопасен
+        for (int i = 0; i < rooms.size(); i++) {
+            rooms.applyOffset(i);
+            grid.update(i, rooms.x[i], rooms.y[i]);
+        }
+        return separated;
+    }
+
+    /**
+     * Задача параллельного разделения: считает смещения комнат с номерами от
+     * from до to
+     */
+    private class OffsetTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SpatialHash grid;
+        private final int from;
+        private final int to;
+        long tests;             //количество проверок пересечения
+        boolean overlapping;    //были ли пересекающиеся комнаты
+        long[] coincident = new long[4]; //пары совпадающих комнат (index << 32 | causeIndex)
+        int coincidentCount;
+
+        OffsetTask(SpatialHash grid, int from, int to) {
+            this.grid = grid;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            tests = 0;
+            overlapping = false;
+            coincidentCount = 0;
+            for (int i = from; i < to; i++) {
+                int cx = grid.cellX(rooms.x[i]);
+                int cy = grid.cellY(rooms.y[i]);
+                for (int dx = -1; dx <= 1; dx++) {
+                    for (int dy = -1; dy <= 1; dy++) {
+                        for (int j = grid.first(cx + dx, cy + dy); j != -1; j = grid.next(j)) {
+                            tests++;
+                            if (j != i && rooms.isOverlapping(i, j)) {
+                                overlapping = true;
+                                if (!addDirectedOffset(i, j)) {
+                                    if (coincidentCount == coincident.length) {
+                                        coincident = Arrays.copyOf(coincident, coincidentCount * 2);
+                                    }
+                                    coincident[coincidentCount++] = ((long) i << 32) | j;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Быстрое разделение: комнаты расставляются по одной, от ближних к центру
+     * кучи к дальним. Каждая комната летит от своей начальной позиции в
+     * случайном направлении и, пока пересекает уже расставленные комнаты,
+     * перепрыгивает за дальнюю границу всех пересекаемых комнат с зазором 2.
+     * Позиции округляются так, чтобы углы комнат оставались в целых клетках.
+     * Каждая комната ставится один раз, поэтому нужен ровно один проход.
+     *
+     * @param start время начала разделения
+     * @param cellSize сторона ячейки пространственного хеша
+     */
+    private void placeRooms(long start, double cellSize) {
+        int n = rooms.size();
+        long tests = 0;
+        //центр кучи
+        double centerX = 0;
+        double centerY = 0;
+        for (int i = 0; i < n; i++) {
+            centerX += rooms.x[i];
+            centerY += rooms.y[i];
+        }
+        centerX /= n;
+        centerY /= n;
+        //порядок расстановки: по квадрату расстояния до центра, при равенстве - по номеру
+        long[] order = new long[n];
+        for (int i = 0; i < n; i++) {
+            double distance = (rooms.x[i] - centerX) * (rooms.x[i] - centerX)
+                    + (rooms.y[i] - centerY) * (rooms.y[i] - centerY);
+            order[i] = ((long) Math.min(distance, Integer.MAX_VALUE) << 32) | i;
+        }
+        Arrays.sort(order);
+        SpatialHash placed = new SpatialHash(cellSize, n);
+        boolean[] isPlaced = new boolean[n];
+        metrics.separationPasses++;
+        for (int k = 0; k < n; k++) {
+            //время проверяется не на каждой комнате, чтобы не вызывать nanoTime() слишком часто;
+            //первая комната ставится всегда, чтобы на карте осталась хотя бы одна комната
+            if (maxSeparationNanos > 0 && k > 0 && (k & 63) == 0
+                    && System.nanoTime() - start > maxSeparationNanos) {
+                break;
+            }
+            int i = (int) order[k];
+            double angle = separationRandom.nextDouble() * 2 * Math.PI;
+            double dirX = Math.cos(angle);
+            double dirY = Math.sin(angle);
+            while (true) {
+                //наибольший шаг вдоль направления, после которого комната не
+                //пересекает ни одну из комнат, пересекаемых сейчас
+                double step = 0;
+                int cx = placed.cellX(rooms.x[i]);
+                int cy = placed.cellY(rooms.y[i]);
+                for (int dx = -1; dx <= 1; dx++) {
+                    for (int dy = -1; dy <= 1; dy++) {
+                        for (int j = placed.first(cx + dx, cy + dy); j != -1; j = placed.next(j)) {
+                            tests++;
+                            if (rooms.isOverlapping(i, j)) {
+                                step = Math.max(step, exitStep(i, j, dirX, dirY));
+                            }
+                        }
+                    }
+                }
+                if (step == 0) {
+                    break;
+                }
+                rooms.x[i] = snap(rooms.x[i] + step * dirX, rooms.width[i], dirX);
+                rooms.y[i] = snap(rooms.y[i] + step * dirY, rooms.height[i], dirY);
+            }
+            placed.insert(i, rooms.x[i], rooms.y[i]);
+            isPlaced[i] = true;
+        }
+        metrics.overlapTests += tests;
+        //комнаты, которые не успели расставить за отведенное время, удаляются
+        rooms.retain(isPlaced);
+        metrics.roomsDropped += n - rooms.size();
+    }
+
+    /**
+     * Рассчитывает шаг вдоль направления (dirX, dirY), после которого
+     * комната i выходит из комнаты j с зазором 2: центры комнат
+     * расходятся хотя бы по одной оси на полусумму размеров плюс 3, потому
+     * что углы комнат лежат в целых клетках.
+     */
+    private double exitStep(int i, int j, double dirX, double dirY) {
+        double stepX = Double.POSITIVE_INFINITY;
+        double stepY = Double.POSITIVE_INFINITY;
+        double halfX = (rooms.width[i] + rooms.width[j]) / 2.0 + 3;
+        double halfY = (rooms.height[i] + rooms.height[j]) / 2.0 + 3;
+        if (dirX > 0) {
+            stepX = (rooms.x[j] + halfX - rooms.x[i]) / dirX;
+        } else if (dirX < 0) {
+            stepX = (rooms.x[j] - halfX - rooms.x[i]) / dirX;
+        }
+        if (dirY > 0) {
+            stepY = (rooms.y[j] + halfY - rooms.y[i]) / dirY;
+        } else if (dirY < 0) {
+            stepY = (rooms.y[j] - halfY - rooms.y[i]) / dirY;
+        }
+        return Math.min(stepX, stepY);
+    }
+
+    /**
+     * Округляет координату центра комнаты так, чтобы угол комнаты попал в
+     * целую клетку. Округление идет в сторону движения, поэтому комната не
+     * возвращается в только что покинутые комнаты.
+     */
+    private static double snap(double position, double size, double dir) {
+        double corner = position - size / 2;
+        if (dir > 0) {
+            corner = Math.ceil(corner);
+        } else if (dir < 0) {
+            corner = Math.floor(corner);
+        } else {
+            corner = Math.rint(corner);
+        }
+        return corner + size / 2;
+    }
+
+    /**
+     * Удаляет комнаты, которые пересекают комнаты с меньшими номерами. Нужно,
+     * когда бюджет разделения исчерпан до того, как комнаты разошлись.
+     */
+    private void dropOverlapping(SpatialHash grid) {
+        int n = rooms.size();
+        boolean[] kept = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            kept[i] = true;
+            int cx = grid.cellX(rooms.x[i]);
+            int cy = grid.cellY(rooms.y[i]);
+            for (int dx = -1; dx <= 1 && kept[i]; dx++) {
+                for (int dy = -1; dy <= 1 && kept[i]; dy++) {
+                    for (int j = grid.first(cx + dx, cy + dy); j != -1; j = grid.next(j)) {
+                        if (j < i && kept[j] && rooms.isOverlapping(i, j)) {
+                            kept[i] = false;
+                            break;
+                        }
+                    }
+                }
+            }
+            if (!kept[i]) {
+                metrics.roomsDropped++;
             }
         }
+        rooms.retain(kept);
     }
 
     /**
@@ -91,42 +540,56 @@ public class MapGenerator {
      * итерацию не должно превышать 1, иначе расстояние между комнатами будет
      * очень большим.
      *
-     * @param room комната, для которой высчитывается смещение
-     * @param cause комната, относительно которой высчитывается смещение
-     */
-    private void computeSeparation(Room room, Room cause) {
-        //вектор от комнаты room до комнаты cause
-        Vector2 dir = room.position.returnDifference(cause.position);
-        //определяется, в какую сторону идет смещение комнаты room
-        if (Math.abs(dir.x) >= Math.abs(dir.y)) {
-            if (dir.x > 0) {
-                room.addOffset(new Vector2(1, 0));
-            } else if (dir.x < 0) {
-                room.addOffset(new Vector2(-1, 0));
-            }
+     * @param index индекс комнаты, для которой высчитывается смещение
+     * @param causeIndex индекс комнаты, относительно которой высчитывается
+     * смещение
+     */
+    private void computeSeparation(int index, int causeIndex) {
+        if (!addDirectedOffset(index, causeIndex)) {
+            addRandomOffset(index, causeIndex);
         }
-        if (Math.abs(dir.x) <= Math.abs(dir.y)) {
-            if (dir.y > 0) {
-                room.addOffset(new Vector2(0, 1));
-            } else if (dir.y < 0) {
-                room.addOffset(new Vector2(0, -1));
+    }
+
+    /**
+     * Добавляет смещение комнаты index от комнаты causeIndex. Меняет только
+     * смещение комнаты index, поэтому может вызываться из разных потоков для
+     * разных комнат.
+     *
+     * @return false, если комнаты в одной точке и смещение не добавлено
+     */
+    private boolean addDirectedOffset(int index, int causeIndex) {
+        //вектор от комнаты index до комнаты causeIndex
+        double dirX = rooms.x[index] - rooms.x[causeIndex];
+        double dirY = rooms.y[index] - rooms.y[causeIndex];
+        //определяется, в какую сторону идет смещение комнаты index
+        if (Math.abs(dirX) >= Math.abs(dirY)) {
+            if (dirX > 0) {
+                rooms.offsetX[index] += 1;
+            } else if (dirX < 0) {
+                rooms.offsetX[index] -= 1;
             }
         }
-        //если комнаты в одной точке, то они расходятся в рандомные стороны
-        if (dir.equals(new Vector2())) {
-            int rand = (int) (Math.random() * 2) + 1;
-            if (rand == 2) {
-                rand = -1;
-            } else {
-                rand = 1;
-            }
-            //если индекс комнаты room меньше, то она смещается по X, иначе по Y
-            if (rooms.indexOf(room) > rooms.indexOf(cause)) {
-                room.addOffset(new Vector2(1 * rand, 0));
-            } else {
-                room.addOffset(new Vector2(0, 1 * rand));
+        if (Math.abs(dirX) <= Math.abs(dirY)) {
+            if (dirY > 0) {
+                rooms.offsetY[index] += 1;
+            } else if (dirY < 0) {
+                rooms.offsetY[index] -= 1;
             }
         }
+        return dirX != 0 || dirY != 0;
+    }
+
+    /**
+     * Если комнаты в одной точке, то они расходятся в рандомные стороны
+     */
+    private void addRandomOffset(int index, int causeIndex) {
+        int rand = separationRandom.nextBoolean() ? -1 : 1;
+        //если индекс комнаты index меньше, то она смещается по Y, иначе по X
+        if (index > causeIndex) {
+            rooms.offsetX[index] += rand;
+        } else {
+            rooms.offsetY[index] += rand;
+        }
     }
 
     /**
@@ -139,376 +602,503 @@ public class MapGenerator {
      * треугольники равномерно распределились по мешу и не было слишком узких
      * или вытяннутых треугольников. Алгоритм следующий: сначала строятся два
      * треугольника, образующие квадрат, так, чтобы все точки триангуляции
-     * гарантированно попадали внутрь уже существующих треугольников. Затем для
-     * каждой новой точки определяются треугольники, в окружность которых
+     * гарантированно попадали внутрь уже существующих треугольников. Затем
+     * точки по одной вставляются в триангуляцию (см. {@link Triangulation}):
+     * для каждой новой точки определяются треугольники, в окружность которых
      * попадает эта точка. Эти треугольники удаляются и на основе полученного
-     * контура строятся новые треугольники.
+     * контура строятся новые треугольники. Для очень больших карт вместо
+     * этого используется {@link ParallelTriangulation}.
      */
-    private void createTriangulation() {
+    void createTriangulation() {
         //Сначала создаем суперпозицию, то есть создаем два треугольника, образующие
         //квадрат так, чтобы они захватывали все точки
         double top = 0; //максимальная позиция по Y
         double bot = 0; //минимальная позиция по Y
         double right = 0; //максимальная позиция по X
         double left = 0; //минимальная позиция по X
-        for (Room room : rooms) {
-            if (room.position.y > top) {
-                top = room.position.y;
+        for (int i = 0; i < rooms.size(); i++) {
+            if (rooms.y[i] > top) {
+                top = rooms.y[i];
             }
-            if (room.position.y < bot) {
-                bot = room.position.y;
+            if (rooms.y[i] < bot) {
+                bot = rooms.y[i];
             }
-            if (room.position.x > right) {
-                right = room.position.x;
+            if (rooms.x[i] > right) {
+                right = rooms.x[i];
             }
-            if (room.position.x < left) {
-                left = room.position.x;
+            if (rooms.x[i] < left) {
+                left = rooms.x[i];
             }
         }
         top++;
         bot--;
         right++;
         left--;
-        //Те самые два треугольника, образующие суперпозицию
-        triangles.add(new Triangle(new Vector2(right, bot), new Vector2(left, bot), new Vector2(left, top)));
-        triangles.add(new Triangle(new Vector2(left, top), new Vector2(right, top), new Vector2(right, bot)));
-        for (int i = 0; i < NumberOfRooms; i++) {
-            Vector2 point = rooms.get(i).position;
-            //список треуголььников, для которых после добавления новой точки перестало
-            //выполняться условие Делоне. Они подлежат удалению
-            ArrayList<Triangle> selected = new ArrayList<>();
-            //список треуголников, которые остаются нетронутыми
-            ArrayList<Triangle> usual = new ArrayList<>();
-            for (Triangle t : triangles) {
-                //если точка попадает в описанную окружность треугольника, то она
-                //попадает в selected, иначе в usual
-                if (t.checkPoint(point)) {
-                    selected.add(t);
-                } else {
-                    usual.add(t);
-                }
-            }
-            //Создаем контур из точек, которые входили в удаленные треугольники.
-            //То есть у нас образовалась дырка в триангуляции, и этот список - точки,
-            //образующие эту дыру.
-            ArrayList<Vector2> points = new ArrayList<>();
-            if (selected.size() > 0) {
-                points.add(selected.get(0).p1);
-                points.add(selected.get(0).p2);
-                points.add(selected.get(0).p3);
-                selected.remove(0);
-                //список для очереди еще не просмотренных треугоьников
-                ArrayList<Triangle> queue = new ArrayList<>();
-                do {
-                    queue.clear();
-                    //Так как точки идут вразнобой, нам нужно отсортировать их по часовой стрелке
-                    for (int j = 0; j < selected.size(); j++) {
-                        //для каждого добавляющегося треуголника мы смотрим, содержится ли любая пара
-                        //его точек в списке. Если содержится, то не входящую в список точку мы вставляем
-                        //между этими двумя.
-                        if (points.contains(selected.get(j).p1) && points.contains(selected.get(j).p2)) {
-                            int ind1 = points.indexOf(selected.get(j).p1);
-                            int ind2 = points.indexOf(selected.get(j).p2);
-                            if (ind1 - ind2 == 1) {
-                                points.add(ind2 + 1, selected.get(j).p3);
-                            } else if (ind2 - ind1 == 1) {
-                                points.add(ind1 + 1, selected.get(j).p3);
-                            } else {
-                                points.add(points.size(), selected.get(j).p3);
-                            }
-                        } else if (points.contains(selected.get(j).p2) && points.contains(selected.get(j).p3)) {
-                            int ind1 = points.indexOf(selected.get(j).p2);
-                            int ind2 = points.indexOf(selected.get(j).p3);
-                            if (ind1 - ind2 == 1) {
-                                points.add(ind2 + 1, selected.get(j).p1);
-                            } else if (ind2 - ind1 == 1) {
-                                points.add(ind1 + 1, selected.get(j).p1);
-                            } else {
-                                points.add(points.size(), selected.get(j).p1);
-                            }
-                        } else if (points.contains(selected.get(j).p1) && points.contains(selected.get(j).p3)) {
-                            int ind1 = points.indexOf(selected.get(j).p1);
-                            int ind2 = points.indexOf(selected.get(j).p3);
-                            if (ind1 - ind2 == 1) {
-                                points.add(ind2 + 1, selected.get(j).p2);
-                            } else if (ind2 - ind1 == 1) {
-                                points.add(ind1 + 1, selected.get(j).p2);
-                            } else {
-                                points.add(points.size(), selected.get(j).p2);
-                            }
-                            //если точки треуголника не входят в этот список, он отправляется в очередь
-                        } else {
-                            queue.add(selected.get(j));
-                        }
-                    }
-                    if (!queue.isEmpty()) {
-                        selected.clear();
-                        selected.addAll(queue);
-                    }
-                } while (queue.size() > 0);
-                //создание новых треугольников, содержащих 2 точки контура и новую точку
-                for (int j = 0; j < points.size() - 1; j++) {
-                    usual.add(new Triangle(points.get(j), points.get(j + 1), point));
-                }
-                usual.add(new Triangle(points.get(points.size() - 1), points.get(0), point));
-                triangles = usual;
-            }
+        //Координаты центров комнат. Вершины треугольников с номерами от 0 до
+        //rooms.size() - 1 соответствуют комнатам, остальные - углам суперпозиции
+        double[] px = rooms.xs();
+        double[] py = rooms.ys();
+        if (rooms.size() >= parallelTriangulationRooms) {
+            ParallelTriangulation triangulation = new ParallelTriangulation(px, py, left, bot, right, top, pool());
+            triangulation.build();
+            edges = triangulation.edges();
+            return;
         }
+        Triangulation triangulation = new Triangulation(px, py, left, bot, right, top);
+        triangulation.build();
+        metrics.trianglesCreated += triangulation.created();
+        metrics.trianglesDestroyed += triangulation.destroyed();
+        metrics.cavityTriangles += triangulation.cavityTotal();
+        metrics.maxCavity = Math.max(metrics.maxCavity, triangulation.maxCavity());
         //Добавляем все ребра треуголников в список ребер, но только не те, которые
         //входят в суперпозцию
-        for (Triangle t : triangles) {
-            Edge e = new Edge(t.p1, t.p2);
-            if (!e.contains(new Vector2(left, bot)) && !e.contains(new Vector2(left, top)) && !e.contains(new Vector2(right, top)) && !e.contains(new Vector2(right, bot))) {
-                if (!edges.contains(e)) {
-                    edges.add(e);
-                }
-            }
-            e = new Edge(t.p2, t.p3);
-            if (!e.contains(new Vector2(left, bot)) && !e.contains(new Vector2(left, top)) && !e.contains(new Vector2(right, top)) && !e.contains(new Vector2(right, bot))) {
-                if (!edges.contains(e)) {
-                    edges.add(e);
-                }
-            }
-            e = new Edge(t.p1, t.p3);
-            if (!e.contains(new Vector2(left, bot)) && !e.contains(new Vector2(left, top)) && !e.contains(new Vector2(right, top)) && !e.contains(new Vector2(right, bot))) {
-                if (!edges.contains(e)) {
-                    edges.add(e);
-                }
-            }
-        }
+        edges = triangulation.edges();
     }
 
     /**
-     * Создает минимальное остовное дерево на основе триангуляции Делоне. У нас
-     * есть список треугольников triangles, но нам нужны только их ребра, так
-     * что вносим все ребра в спсок edges. Список вершин: vertices. Также нам
-     * нужно еще три списка вершин: уже добавленные в минимальный остовный граф
-     * (path), еще не добавленные (active) и промежуточные (active_buffer), так
-     * как в цикле foreach мы не можем удалть элементы списка. Затем выбираем
-     * ребро с наименьшей стоимостью. После чего пока не закончатся
-     * несоединенные точки находи такое ребро с минимальной стоимостью, чтобы
-     * один его конец уже был частью пути, а второй еще был частью недобавленных
-     * вершин.
+     * Создает минимальное остовное дерево на основе триангуляции Делоне
+     * алгоритмом Краскала. Ребра триангуляции сортируются по стоимости, затем
+     * просматриваются от самого дешевого к самому дорогому. Ребро добавляется
+     * в путь, если оно соединяет вершины, которые еще не связаны путем.
+     * Связность вершин хранится в системе непересекающихся множеств, поэтому
+     * все дерево строится за O(E log E).
      */
-    private void generateCorridors() {
+    void generateCorridors() {
         if (edges.isEmpty()) {
             return;
         }
-        //определяем грань с наименьшим весом
-        Edge first = edges.get(0);
-        for (Edge e : edges) {
-            if (e.cost < first.cost) {
-                first = e;
-            }
-        }
-        for (Room r : rooms) {
-            vertices.add(r.position);
-        }
+        //ребра в порядке возрастания стоимости
+        edges.sortByCost();
         //список с ребрами, составляющими путь (минимальное остовное дерево)
-        ArrayList<Edge> path = new ArrayList<>();
-        //список ребер, которые еще не рассматривались
-        ArrayList<Edge> active = edges;
-        //список, служащий буфером для еще не рассмотренных ребер
-        ArrayList<Edge> active_buffer = new ArrayList<>();
-        path.add(first);
-        vertices.remove(first.p1);
-        vertices.remove(first.p2);
-        active.remove(first);
-        //пока не закончатся активные точки, мы просматриваем все активные ребра и
-        //выбираем одно самое минимальное, которое одной точкой уже входит в путь, 
-        //а другой входит в активные точки
-        while (vertices.size() > 0) {
-            //ребро с минимальным весом из всех активных ребер
-            Edge edge = new Edge();
-            edge.cost = Double.MAX_VALUE;
-            for (Edge e : active) {
-                int k = 0;
-                for (Vector2 v : vertices) {
-                    //смотреим, сколько не добавленных в граф точек включает ребро
-                    if (e.contains(v)) {
-                        k++;
-                    }
+        EdgeList path = new EdgeList(rooms.size());
+        DisjointSet connected = new DisjointSet(rooms.size());
+        long[] inTree = loopFraction > 0 ? new long[(edges.size() + 63) >>> 6] : null;
+        for (int i = 0; i < edges.size(); i++) {
+            metrics.mstEdgesScanned++;
+            if (connected.union(edges.from(i), edges.to(i))) {
+                path.add(edges.from(i), edges.to(i), edges.cost(i));
+                if (inTree != null) {
+                    inTree[i >>> 6] |= 1L << i;
                 }
-                //если одну, то такое ребро нам подходит
-                if (k == 1) {
-                    //смотрим, минимальна ли его длина (вес)
-                    if (e.cost < edge.cost) {
-                        //если предыдущее минимальное ребро входило в список активных ребер,
-                        //то возвращаем его туда через буфер активных реьер
-                        if (edge.p1 != edge.p2) {
-                            active_buffer.add(edge);
-                        }
-                        //и кладем на его место новое минимальное ребро
-                        edge = e;
-                    } else {
-                        active_buffer.add(e);
-                    }
-                    //если ребро все еще не соприкасается с путем, то кладем его в буфер
-                } else if (k == 2) {
-                    active_buffer.add(e);
+                if (path.size() == rooms.size() - 1) {
+                    break;
                 }
             }
-            //очищаем список и заменяем его списком буфера. Теперь в списке остались все ребра,
-            //кроме одного, выбранного нами в цикле (с минимальным весом)
-            active.clear();
-            active.addAll(active_buffer);
-            active_buffer.clear();
-            path.add(edge);
-            if (vertices.contains(edge.p1)) {
-                vertices.remove(edge.p1);
-            }
-            if (vertices.contains(edge.p2)) {
-                vertices.remove(edge.p2);
-            }
+        }
+        //ребра триангуляции сохраняются, только если из них выбираются петли
+        triangulationEdges = inTree != null ? edges : null;
+        treeEdges = inTree;
+        if (inTree != null) {
+            addLoops(path);
         }
         //на выходе получаем список из ребер, которые образуют проходы между комнатами
         edges = path;
     }
 
     /**
-     * Рассчитывает размер массива, создает его и инициализирует пробелами.
+     * Добавляет в path петли из ребер триангуляции, которые не вошли в
+     * дерево. Ребра уже отсортированы по длине, а ребра дерева отмечены в
+     * treeEdges, поэтому хватает одного прохода по ребрам без поиска.
+     *
+     * @param path ребра остовного дерева
+     */
+    private void addLoops(EdgeList path) {
+        long quota = triangulationEdges.size() - path.size();
+        if (loopMode == LoopMode.SHORTEST) {
+            quota = Math.round(quota * loopFraction);
+        }
+        int tree = path.size();
+        for (int i = 0; i < triangulationEdges.size() && quota > 0; i++) {
+            if ((treeEdges[i >>> 6] & (1L << i)) != 0) {
+                continue;
+            }
+            if (loopMode == LoopMode.SAMPLED && loopRandom.nextDouble() >= loopFraction) {
+                continue;
+            }
+            path.add(triangulationEdges.from(i), triangulationEdges.to(i), triangulationEdges.cost(i));
+            quota--;
+        }
+        metrics.loopsAdded += path.size() - tree;
+    }
+
+    /**
+     * Рассчитывает размер карты и создает ее пустой.
      * Также смещает комнаты в 4 координатную четверть и делает их координаты
      * положительными. Это нужно для того, чтобы избежать проблем с координатами
      * комнат в массиве.
      */
-    private void createMap() {
+    void createMap() {
+        layoutMap();
+        int n = mapRows;
+        int m = mapCols;
+        if (gridFile == null) {
+            map = new BitGrid(n, m);
+        } else {
+            try {
+                map = new MappedBitGrid(Paths.get(gridFile), n, m);
+            } catch (IOException ex) {
+                System.out.println("Ошибка 4! Ошибка при создании файла");
+                System.exit(4);
+            }
+        }
+    }
+
+    /**
+     * Рассчитывает размер карты (mapRows x mapCols) и смещает комнаты в
+     * координаты карты, но саму карту не создает
+     */
+    private void layoutMap() {
         //максимальная позиция комнаты по оси Y
-        int top = (int) (rooms.get(0).position.y + rooms.get(0).size.y / 2);
+        int top = (int) (rooms.y[0] + rooms.height[0] / 2.0);
         //минимальная позиция комнаты по оси Y
-        int bot = (int) (rooms.get(0).position.y - rooms.get(0).size.y / 2);
+        int bot = (int) (rooms.y[0] - rooms.height[0] / 2.0);
         //максимальная позиция комнаты по оси X
-        int right = (int) (rooms.get(0).position.x + rooms.get(0).size.x / 2);
+        int right = (int) (rooms.x[0] + rooms.width[0] / 2.0);
         //минимальная позиция комнаты по оси X
-        int left = (int) (rooms.get(0).position.x - rooms.get(0).size.x / 2);
+        int left = (int) (rooms.x[0] - rooms.width[0] / 2.0);
         //ищем границы будущего массива
-        for (Room room : rooms) {
-            if (room.position.x + room.size.x / 2 >= right) {
-                right = (int) (room.position.x + room.size.x / 2) + 1;
+        for (int i = 0; i < rooms.size(); i++) {
+            double halfX = rooms.width[i] / 2.0;
+            double halfY = rooms.height[i] / 2.0;
+            if (rooms.x[i] + halfX >= right) {
+                right = (int) (rooms.x[i] + halfX) + 1;
             }
-            if (room.position.x - room.size.x / 2 <= left) {
-                left = (int) (room.position.x - room.size.x / 2) - 1;
+            if (rooms.x[i] - halfX <= left) {
+                left = (int) (rooms.x[i] - halfX) - 1;
             }
-            if (room.position.y + room.size.y / 2 >= top) {
-                top = (int) (room.position.y + room.size.y / 2) + 1;
+            if (rooms.y[i] + halfY >= top) {
+                top = (int) (rooms.y[i] + halfY) + 1;
             }
-            if (room.position.y - room.size.y / 2 <= bot) {
-                bot = (int) (room.position.y - room.size.y / 2) - 1;
-            }
-        }
-        //считаем размер массива и инициализируем его пробелами
-        int n = top - bot;
-        int m = right - left;
-        map = new boolean[n][m];
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < m; j++) {
-                map[i][j] = false;
+            if (rooms.y[i] - halfY <= bot) {
+                bot = (int) (rooms.y[i] - halfY) - 1;
             }
         }
+        //считаем размер карты
+        mapRows = top - bot;
+        mapCols = right - left;
         //смещаем все комнаты в 4 координатную четверть и берем их координаты по
         //модулю. Это позволяет избежать проблем с занесением в массив
-        Vector2 oldCoords = new Vector2((right + left) / 2.0, (top + bot) / 2.0);
-        Vector2 newCoords = new Vector2((Math.abs(right) + Math.abs(left)) / 2.0, -(Math.abs(top) + Math.abs(bot)) / 2.0);
-        double xOffset = newCoords.x - oldCoords.x;
-        double yOffset = newCoords.y - oldCoords.y;
+        double xOffset = (Math.abs(right) + Math.abs(left)) / 2.0 - (right + left) / 2.0;
+        double yOffset = -(Math.abs(top) + Math.abs(bot)) / 2.0 - (top + bot) / 2.0;
         for (int i = 0; i < rooms.size(); i++) {
-            rooms.get(i).position.plus(new Vector2(xOffset, yOffset));
-            rooms.get(i).position.y = Math.abs(rooms.get(i).position.y);
+            rooms.x[i] += xOffset;
+            rooms.y[i] = Math.abs(rooms.y[i] + yOffset);
         }
     }
 
     /**
      * Заполняет ячейки массива, соответствующие коридорам, нулями.
      */
-    private void createCorridors() {
+    void createCorridors() {
         //комнаты скорее всего не будут лежать на какой-либо оси координат. Для их соединения
         //находим вектор, показывающий направление от первой комнаты до второй и в зависимости
         //от его направления строим пересекающиеся прямые, параллельные одной из оси координат.
         //Цикл выполняется для каждого ребра
-        for (Edge e : edges) {
-            //Вектор, показывающий отношение между первой и второй точкой
-            Vector2 dir = e.p1.returnDifference(e.p2);
-            //Если первая точка лежит на оси X дальше второй
-            if (dir.x > 0) {
-                //Если первая точка лежит ниже второй
-                if (dir.y > 0) {
-                    for (int i = (int) e.p2.x; i < (int) e.p1.x; i++) {
-                        map[(int) e.p1.y][i] = true;
-                    }
-                    for (int i = (int) e.p2.y; i < (int) e.p1.y; i++) {
-                        map[i][(int) e.p2.x] = true;
-                    }
-                    //иначе
-                } else {
-                    for (int i = (int) e.p2.x; i < (int) e.p1.x; i++) {
-                        map[(int) e.p1.y][i] = true;
-                    }
-                    for (int i = (int) e.p1.y; i < (int) e.p2.y; i++) {
-                        map[i][(int) e.p2.x] = true;
-                    }
-                }
-            } else //или если первая точка лежит ближе второй
-            {
-                if (dir.y > 0) { //и лежит ниже второй
-                    for (int i = (int) e.p1.x; i < (int) e.p2.x; i++) {
-                        map[(int) e.p1.y - 1][i] = true;
-                    }
-                    for (int i = (int) e.p2.y; i < (int) e.p1.y; i++) {
-                        map[i][(int) e.p2.x] = true;
-                    }
-                } else { //иначе
-                    for (int i = (int) e.p1.x; i < (int) e.p2.x; i++) {
-                        map[(int) e.p1.y][i] = true;
-                    }
-                    for (int i = (int) e.p1.y; i < (int) e.p2.y; i++) {
-                        map[i][(int) e.p2.x] = true;
-                    }
-                }
+        corridorLengths = null;
+        if (corridorMode == CorridorMode.ROUTED) {
+            routeCorridors();
+            return;
+        }
+        int[] spans = new int[6];
+        for (int k = 0; k < edges.size(); k++) {
+            drawCorridor(edges.from(k), edges.to(k), spans);
+        }
+    }
+
+    /**
+     * Рисует коридор буквой L между центрами комнат a и b
+     */
+    private void drawCorridor(int a, int b, int[] spans) {
+        corridorSpans(rooms.x[a], rooms.y[a], rooms.x[b], rooms.y[b], spans);
+        metrics.cellsRasterized += (spans[2] - spans[1]) + (spans[5] - spans[4]);
+        map.fillRow(spans[0], spans[1], spans[2]);
+        for (int i = spans[4]; i < spans[5]; i++) {
+            map.set(i, spans[3]);
+        }
+    }
+
+    /**
+     * Прокладывает коридоры поиском A* ({@link CorridorMode#ROUTED}). Клетки
+     * комнат роутер берет из своего индекса комнат, потому что на карте они
+     * появятся только в createRooms, а вторая карта того же размера не
+     * поместилась бы в память там, где карта - {@link MappedBitGrid}. Ребро,
+     * для которого область поиска слишком велика, рисуется буквой L. Длины
+     * проложенных коридоров запоминаются для {@link #createNavigationGraph()}.
+     */
+    private void routeCorridors() {
+        CorridorRouter router = new CorridorRouter(map, rooms);
+        int[] spans = new int[6];
+        corridorLengths = new int[edges.size()];
+        for (int k = 0; k < edges.size(); k++) {
+            if (router.route(edges.from(k), edges.to(k))) {
+                corridorLengths[k] = router.length;
+            } else {
+                drawCorridor(edges.from(k), edges.to(k), spans);
+                corridorLengths[k] = -1;
             }
         }
+        metrics.cellsRasterized += router.cells;
+        metrics.corridorCellsExpanded += router.expanded;
+    }
+
+    /**
+     * Находит горизонтальный и вертикальный отрезки коридора между центрами
+     * двух комнат в координатах карты. Коридор между одними и теми же
+     * комнатами всегда одинаков, поэтому его можно заново нарисовать или
+     * стереть отдельно от остальной карты.
+     *
+     * @param x1 центр первой комнаты по оси X
+     * @param y1 центр первой комнаты по оси Y
+     * @param x2 центр второй комнаты по оси X
+     * @param y2 центр второй комнаты по оси Y
+     * @param spans массив из 6 чисел для результата: строка, первый и
+     * последний + 1 столбец горизонтального отрезка, затем столбец, первая и
+     * последняя + 1 строка вертикального отрезка
+     */
+    static void corridorSpans(double x1, double y1, double x2, double y2, int[] spans) {
+        //Вектор, показывающий отношение между первой и второй точкой
+        double dirX = x1 - x2;
+        double dirY = y1 - y2;
+        //Если первая точка лежит на оси X дальше второй, горизонтальный отрезок
+        //идет от второй точки к первой, иначе от первой ко второй
+        if (dirX > 0) {
+            spans[0] = (int) y1;
+            spans[1] = (int) x2;
+            spans[2] = (int) x1;
+        } else {
+            //если первая точка лежит ближе и ниже второй, отрезок сдвинут на строку
+            spans[0] = dirY > 0 ? (int) y1 - 1 : (int) y1;
+            spans[1] = (int) x1;
+            spans[2] = (int) x2;
+        }
+        //вертикальный отрезок всегда проходит по столбцу второй точки
+        spans[3] = (int) x2;
+        if (dirY > 0) {
+            spans[4] = (int) y2;
+            spans[5] = (int) y1;
+        } else {
+            spans[4] = (int) y1;
+            spans[5] = (int) y2;
+        }
     }
 
     /**
      * Заполняет ячейки массива, соответствующие комнатам, нулями
      */
-    private void createRooms() {
-        for (Room room : rooms) {
+    void createRooms() {
+        for (int k = 0; k < rooms.size(); k++) {
             //находит координаты левого верхнего угла комнаты и заполняет массив нулями,
             //начиная с него.
             //координаты левого верхнего угла по X
-            int xCorner = (int) (room.position.x - room.size.x / 2);
+            int xCorner = (int) (rooms.x[k] - rooms.width[k] / 2.0);
             //координаты левого верхнего угла по Y
-            int yCorner = (int) (room.position.y - room.size.y / 2);
-            for (int i = yCorner; i < yCorner + room.size.y; i++) {
-                for (int j = xCorner; j < xCorner + room.size.x; j++) {
-                    map[i][j] = true;
-                }
+            int yCorner = (int) (rooms.y[k] - rooms.height[k] / 2.0);
+            metrics.cellsRasterized += (long) rooms.width[k] * rooms.height[k];
+            for (int i = yCorner; i < yCorner + rooms.height[k]; i++) {
+                map.fillRow(i, xCorner, xCorner + rooms.width[k]);
             }
         }
     }
 
+    /**
+     * Генерирует карту: последовательно выполняет все этапы генерации. Если
+     * установлен получатель метрик, то после каждого этапа ему передается
+     * длительность этапа, а в конце - все метрики генерации.
+     */
     public void generateMap() {
+        generateGeometry();
+        rasterize();
+    }
+
+    /**
+     * Первая половина генерации: комнаты, их разделение, триангуляция и
+     * остовное дерево. Только вычисления, без карты.
+     */
+    void generateGeometry() {
+        //счетчики каждой генерации начинаются с нуля
+        metrics = new GenerationMetrics();
+        corridorLengths = null;
+        long time = startStage();
         generateRooms();
+        time = finishStage(Stage.GENERATE_ROOMS, time);
         separateRooms();
+        time = finishStage(Stage.SEPARATE_ROOMS, time);
         createTriangulation();
+        time = finishStage(Stage.CREATE_TRIANGULATION, time);
         generateCorridors();
+        finishStage(Stage.GENERATE_CORRIDORS, time);
+    }
+
+    /**
+     * Вторая половина генерации: создает карту и рисует на ней коридоры и
+     * комнаты. Вызывается после {@link #generateGeometry()}.
+     */
+    void rasterize() {
+        long time = startStage();
         createMap();
+        time = finishStage(Stage.CREATE_MAP, time);
         createCorridors();
+        time = finishStage(Stage.CREATE_CORRIDORS, time);
         createRooms();
+        finishStage(Stage.CREATE_ROOMS, time);
+        if (listener != null) {
+            listener.generationFinished(this, metrics);
+        }
+    }
+
+    /**
+     * Генерирует карту, не создавая ее целиком: после геометрии комнаты и
+     * коридоры растеризуются построчно через {@link ScanlineRasterizer}, и
+     * каждая строка сразу передается в sink. Строки совпадают со строками
+     * карты из {@link #generateMap()}, но памяти нужно только на одну строку
+     * и список прямоугольников, а {@link #getGrid()} после этого возвращает
+     * null. Коридоры всегда строятся буквой L ({@link CorridorMode#STRAIGHT}):
+     * для обхода комнат нужна вся карта.
+     *
+     * @param sink получатель строк карты
+     * @throws IOException если получатель не смог записать строку
+     */
+    public void streamMap(ScanlineRasterizer.RowSink sink) throws IOException {
+        ScanlineRasterizer raster = layoutSpans();
+        long time = startStage();
+        raster.stream(sink);
+        finishStage(Stage.STREAM_MAP, time);
+        if (listener != null) {
+            listener.generationFinished(this, metrics);
+        }
+    }
+
+    /**
+     * Выполняет геометрию и размещение карты и собирает коридоры и комнаты
+     * в прямоугольники для построчной растеризации
+     */
+    private ScanlineRasterizer layoutSpans() {
+        generateGeometry();
+        long time = startStage();
+        layoutMap();
+        map = null;
+        finishStage(Stage.CREATE_MAP, time);
+        ScanlineRasterizer raster = new ScanlineRasterizer(mapRows, mapCols, edges.size() * 2 + rooms.size());
+        int[] spans = new int[6];
+        for (int k = 0; k < edges.size(); k++) {
+            int a = edges.from(k);
+            int b = edges.to(k);
+            corridorSpans(rooms.x[a], rooms.y[a], rooms.x[b], rooms.y[b], spans);
+            metrics.cellsRasterized += (spans[2] - spans[1]) + (spans[5] - spans[4]);
+            raster.add(spans[0], spans[0] + 1, spans[1], spans[2]);
+            raster.add(spans[4], spans[5], spans[3], spans[3] + 1);
+        }
+        for (int k = 0; k < rooms.size(); k++) {
+            int xCorner = (int) (rooms.x[k] - rooms.width[k] / 2.0);
+            int yCorner = (int) (rooms.y[k] - rooms.height[k] / 2.0);
+            metrics.cellsRasterized += (long) rooms.width[k] * rooms.height[k];
+            raster.add(yCorner, yCorner + rooms.height[k], xCorner, xCorner + rooms.width[k]);
+        }
+        return raster;
+    }
+
+    /**
+     * @return время начала этапа или 0, если получатель метрик не установлен
+     */
+    private long startStage() {
+        return listener == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Записывает длительность этапа и сообщает о ней получателю метрик
+     *
+     * @param stage завершенный этап
+     * @param start время начала этапа
+     * @return время начала следующего этапа
+     */
+    private long finishStage(Stage stage, long start) {
+        if (listener == null) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        metrics.stageNanos[stage.ordinal()] = now - start;
+        listener.stageFinished(this, stage, now - start);
+        return System.nanoTime();
+    }
+
+    /**
+     * @return комнаты; нужны бенчмаркам, которые запускают этапы генерации по
+     * отдельности, и редактору карты
+     */
+    RoomStore getRooms() {
+        return rooms;
+    }
+
+    /**
+     * @return копии комнат в виде объектов {@link Room}
+     */
+    public ArrayList<Room> getRoomList() {
+        return rooms.toList();
+    }
+
+    /**
+     * @return ребра остовного дерева и петли ({@link #setLoops}) после
+     * генерации карты
+     */
+    EdgeList getEdges() {
+        return edges;
+    }
+
+    /**
+     * @return зерно генератора
+     */
+    public long getSeed() {
+        return seed;
     }
 
+    /**
+     * @return копия карты в виде массива boolean[][]
+     * @throws IllegalStateException если карта не сгенерирована или была
+     * выведена построчно ({@link #streamMap}) и не хранится
+     */
     public boolean[][] getMap() {
+        if (map == null) {
+            throw new IllegalStateException("Карта не хранится: она еще не сгенерирована или выведена построчно");
+        }
+        return map.toArray();
+    }
+
+    /**
+     * @return битовая карта подземелья ({@link MappedBitGrid}, если задан
+     * {@link #setGridFile(String)}) или null, если карта еще не
+     * сгенерирована или была выведена построчно ({@link #streamMap})
+     */
+    public Grid getGrid() {
         return map;
     }
 
+    /**
+     * Строит граф комнат для поиска пути: комнаты, все коридоры (ребра
+     * дерева и петли) с их длинами, таблицы расстояний и индекс клеток. Длина
+     * коридора, проложенного поиском ({@link CorridorMode#ROUTED}), - длина
+     * найденного пути, остальных - длина коридора буквой L. Вызывается после
+     * генерации карты.
+     * Правки {@link MapEditor} сюда не попадают: после них граф нужно
+     * строить через {@link MapEditor#createNavigationGraph()}.
+     *
+     * @return граф комнат и коридоров карты
+     */
+    public NavigationGraph createNavigationGraph() {
+        if (mapRows == 0) {
+            throw new IllegalStateException("Карта еще не сгенерирована");
+        }
+        return new NavigationGraph(rooms, edges, corridorLengths, mapRows, mapCols);
+    }
+
     /**
      * Печатает карту в консоль
      */
     public void PrintMap() {
-        for (int i = 0; i < map.length; i++) {
-            for (int j = 0; j < map[i].length; j++) {
-                System.out.print((map[i][j] ? "0" : " ") + " ");
-            }
-            System.out.println("");
+        try {
+            new MapWriter(map).write(System.out);
+        } catch (IOException ex) {
+            System.out.println("Ошибка 5! Ошибка при выводе карты");
+            System.exit(5);
         }
     }
 
@@ -518,19 +1108,71 @@ public class MapGenerator {
      * @param name имя для файла
      */
     public void PrintMap(String name) {
-        PrintWriter pw = null;
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(Paths.get(name), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        } catch (IOException ex) {
+            System.out.println("Ошибка 4! Ошибка при создании файла");
+            System.exit(4);
+        }
+        try {
+            new MapWriter(map).write(channel);
+            channel.close();
+        } catch (IOException ex) {
+            System.out.println("Ошибка 5! Ошибка при записи файла");
+            System.exit(5);
+        }
+    }
+
+    /**
+     * Генерирует карту и печатает ее в файл с именем name по мере
+     * растеризации, не создавая карту целиком (см.
+     * {@link #streamMap(ScanlineRasterizer.RowSink)}). Формат тот же, что у
+     * {@link #PrintMap(String)}.
+     *
+     * @param name имя для файла
+     */
+    public void PrintMapStreamed(String name) {
+        OutputStream out = null;
         try {
-            pw = new PrintWriter(name);
-        } catch (FileNotFoundException ex) {
+            out = Files.newOutputStream(Paths.get(name));
+        } catch (IOException ex) {
             System.out.println("Ошибка 4! Ошибка при создании файла");
             System.exit(4);
         }
-        for (int i = 0; i < map.length; i++) {
-            for (int j = 0; j < map[i].length; j++) {
-                pw.print((map[i][j] ? "0" : " ") + " ");
+        try {
+            ScanlineRasterizer raster = layoutSpans();
+            MapWriter writer = new MapWriter(raster.cols());
+            long time = startStage();
+            OutputStream file = out;
+            raster.stream((row, line) -> writer.writeRow(line, 0, file));
+            writer.flush(out);
+            finishStage(Stage.STREAM_MAP, time);
+            if (listener != null) {
+                listener.generationFinished(this, metrics);
             }
-            pw.println("");
+            out.close();
+        } catch (IOException ex) {
+            System.out.println("Ошибка 5! Ошибка при записи файла");
+            System.exit(5);
+        }
+    }
+
+    /**
+     * Сохраняет карту в файл с именем name в двоичном формате
+     * {@link MapFileWriter}. Такой файл можно читать по строкам и
+     * прямоугольникам через {@link MapFileReader}.
+     *
+     * @param name имя для файла
+     */
+    public void SaveMap(String name) {
+        try {
+            //комнаты, которые не успели разойтись за бюджет разделения, удалены
+            new MapFileWriter(map, seed, rooms.size(), minSize, maxSize).write(name);
+        } catch (IOException ex) {
+            System.out.println("Ошибка 4! Ошибка при создании файла");
+            System.exit(4);
         }
-        pw.close();
     }
 }
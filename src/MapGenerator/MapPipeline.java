@@ -0,0 +1,280 @@
+package MapGenerator;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Конвейерная генерация пакета карт. Генерация разбита на три этапа, у
+ * каждого свой пул потоков:
+ * <ol>
+ * <li>геометрия - комнаты, разделение, триангуляция и остовное дерево;</li>
+ * <li>растеризация - создание карты, коридоры и комнаты;</li>
+ * <li>запись - передача готовой карты в {@link Sink} (обычно в файл).</li>
+ * </ol>
+ * Этапы соединены очередями ограниченного размера. Если какой-то этап
+ * медленнее остальных, очередь перед ним заполняется и потоки предыдущего
+ * этапа ждут, поэтому в памяти одновременно находится не больше
+ * 2 * queueSize карт плюс по одной карте на поток, а процессор и диск заняты
+ * одновременно.
+ *
+ * Карты передаются в Sink в порядке готовности, из нескольких потоков записи
+ * сразу, если их больше одного.
+ *
+ * @author K1ta
+ */
+public class MapPipeline implements AutoCloseable {
+
+    private static final Job END = new Job(-1, null); //признак конца очереди геометрии
+    private static final GeneratedMap LAST = new GeneratedMap(-1, null, null, 0); //признак конца очереди записи
+
+    private final ExecutorService geometry;   //пул этапа геометрии
+    private final ExecutorService raster;     //пул этапа растеризации
+    private final ExecutorService write;      //пул этапа записи
+    private final int geometryThreads;
+    private final int rasterThreads;
+    private final int writeThreads;
+    private final int queueSize;              //размер очередей между этапами
+
+    /**
+     * Получатель готовых карт, последний этап конвейера
+     */
+    public interface Sink {
+
+        /**
+         * @param map готовая карта
+         * @throws IOException ошибка записи; останавливает весь пакет
+         */
+        void write(GeneratedMap map) throws IOException;
+    }
+
+    /**
+     * Конвейер, в котором геометрия считается на всех процессорах, а
+     * растеризация и запись идут в одном потоке каждая
+     */
+    public MapPipeline() {
+        this(Runtime.getRuntime().availableProcessors(), 1, 1, 16);
+    }
+
+    /**
+     *
+     * @param geometryThreads количество потоков этапа геометрии
+     * @param rasterThreads количество потоков этапа растеризации
+     * @param writeThreads количество потоков этапа записи
+     * @param queueSize размер каждой из очередей между этапами
+     */
+    public MapPipeline(int geometryThreads, int rasterThreads, int writeThreads, int queueSize) {
+        if (geometryThreads < 1 || rasterThreads < 1 || writeThreads < 1) {
+            throw new IllegalArgumentException("Количество потоков должно быть положительным: "
+                    + geometryThreads + "/" + rasterThreads + "/" + writeThreads);
+        }
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("queueSize должно быть положительным: " + queueSize);
+        }
+        this.geometryThreads = geometryThreads;
+        this.rasterThreads = rasterThreads;
+        this.writeThreads = writeThreads;
+        this.queueSize = queueSize;
+        geometry = Executors.newFixedThreadPool(geometryThreads);
+        raster = Executors.newFixedThreadPool(rasterThreads);
+        write = Executors.newFixedThreadPool(writeThreads);
+    }
+
+    /**
+     * Генерирует все карты пакета и передает их в sink. Возвращает управление,
+     * когда все карты записаны. При ошибке на любом этапе остальные этапы
+     * останавливаются.
+     *
+     * @param specs параметры карт
+     * @param sink получатель карт, должен быть потокобезопасным, если потоков
+     * записи больше одного
+     * @return статистика пакета; cpuNanos - сумма времени всех этапов по
+     * всем картам
+     */
+    public BatchStats run(List<MapSpec> specs, Sink sink) {
+        Run run = new Run(specs, sink);
+        for (int i = 0; i < geometryThreads; i++) {
+            geometry.execute(() -> run.worker(run::geometry));
+        }
+        for (int i = 0; i < rasterThreads; i++) {
+            raster.execute(() -> run.worker(run::raster));
+        }
+        for (int i = 0; i < writeThreads; i++) {
+            write.execute(() -> run.worker(run::write));
+        }
+        try {
+            run.done.await();
+        } catch (InterruptedException ex) {
+            run.abort(ex);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Генерация пакета прервана", ex);
+        }
+        Throwable failure = run.failure.get();
+        if (failure != null) {
+            throw new IllegalStateException("Ошибка в конвейере генерации", failure);
+        }
+        return new BatchStats(run.written.get(), System.nanoTime() - run.start, run.cpuNanos.get());
+    }
+
+    /**
+     * Останавливает потоки всех этапов
+     */
+    @Override
+    public void close() {
+        geometry.shutdown();
+        raster.shutdown();
+        write.shutdown();
+    }
+
+    /**
+     * Карта, которая идет по конвейеру
+     */
+    private static class Job {
+
+        final int index;
+        final MapSpec spec;
+        MapGenerator generator;  //генератор после этапа геометрии
+        long nanos;              //время этапа геометрии
+
+        Job(int index, MapSpec spec) {
+            this.index = index;
+            this.spec = spec;
+        }
+    }
+
+    /**
+     * Этап, который выполняет поток
+     */
+    private interface Step {
+
+        void run() throws Exception;
+    }
+
+    /**
+     * Один пакет: очереди между этапами и общее состояние потоков
+     */
+    private class Run {
+
+        private final List<MapSpec> specs;
+        private final Sink sink;
+        private final BlockingQueue<Job> toRaster = new ArrayBlockingQueue<>(queueSize);
+        private final BlockingQueue<GeneratedMap> toWrite = new ArrayBlockingQueue<>(queueSize);
+        private final AtomicInteger next = new AtomicInteger();        //следующая карта для геометрии
+        private final AtomicInteger geometryLeft = new AtomicInteger(geometryThreads);
+        private final AtomicInteger rasterLeft = new AtomicInteger(rasterThreads);
+        private final AtomicInteger written = new AtomicInteger();
+        private final AtomicLong cpuNanos = new AtomicLong();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final Set<Thread> workers = new HashSet<>(); //потоки пакета, под своим замком
+        private final CountDownLatch done = new CountDownLatch(geometryThreads + rasterThreads + writeThreads);
+        private final long start = System.nanoTime();
+        private volatile boolean aborted;
+
+        Run(List<MapSpec> specs, Sink sink) {
+            this.specs = specs;
+            this.sink = sink;
+        }
+
+        /**
+         * Выполняет этап в потоке пула. Если этап упал, останавливает
+         * остальные потоки пакета: они ждут в очередях, поэтому прерываются.
+         */
+        void worker(Step step) {
+            Thread thread = Thread.currentThread();
+            boolean registered;
+            synchronized (workers) {
+                registered = !aborted;
+                if (registered) {
+                    workers.add(thread);
+                }
+            }
+            try {
+                if (registered) {
+                    step.run();
+                }
+            } catch (InterruptedException ex) {
+                if (!aborted) {
+                    abort(ex);
+                }
+            } catch (Exception | Error ex) {
+                abort(ex);
+            } finally {
+                synchronized (workers) {
+                    workers.remove(thread);
+                }
+                //abort прерывает только потоки из workers и под тем же замком,
+                //поэтому после удаления прерывание уже не придет. Прерывание,
+                //которое пришло во время вычислений, снимается, чтобы не
+                //достаться следующей задаче этого потока пула.
+                Thread.interrupted();
+                done.countDown();
+            }
+        }
+
+        void abort(Throwable cause) {
+            failure.compareAndSet(null, cause);
+            synchronized (workers) {
+                aborted = true;
+                for (Thread thread : workers) {
+                    thread.interrupt();
+                }
+            }
+        }
+
+        void geometry() throws InterruptedException {
+            try {
+                for (int i = next.getAndIncrement(); i < specs.size() && !aborted; i = next.getAndIncrement()) {
+                    long time = System.nanoTime();
+                    Job job = new Job(i, specs.get(i));
+                    job.generator = job.spec.generator();
+                    job.generator.generateGeometry();
+                    job.nanos = System.nanoTime() - time;
+                    toRaster.put(job);
+                }
+            } finally {
+                //последний поток геометрии закрывает очередь для всех потоков растеризации
+                if (geometryLeft.decrementAndGet() == 0 && !aborted) {
+                    for (int i = 0; i < rasterThreads; i++) {
+                        toRaster.put(END);
+                    }
+                }
+            }
+        }
+
+        void raster() throws InterruptedException {
+            try {
+                for (Job job = toRaster.take(); job != END; job = toRaster.take()) {
+                    long time = System.nanoTime();
+                    job.generator.rasterize();
+                    //дальше идет только карта, генератор с комнатами и ребрами больше не нужен
+                    toWrite.put(new GeneratedMap(job.index, job.spec, job.generator.getGrid(),
+                            job.nanos + System.nanoTime() - time));
+                }
+            } finally {
+                if (rasterLeft.decrementAndGet() == 0 && !aborted) {
+                    for (int i = 0; i < writeThreads; i++) {
+                        toWrite.put(LAST);
+                    }
+                }
+            }
+        }
+
+        void write() throws IOException, InterruptedException {
+            for (GeneratedMap map = toWrite.take(); map != LAST; map = toWrite.take()) {
+                long time = System.nanoTime();
+                sink.write(map);
+                cpuNanos.addAndGet(map.nanos + System.nanoTime() - time);
+                written.incrementAndGet();
+            }
+        }
+    }
+}
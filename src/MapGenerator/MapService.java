@@ -0,0 +1,398 @@
+package MapGenerator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Локальный сервис генерации карт. Принимает запросы по HTTP только на
+ * loopback-адресе:
+ *
+ * <pre>
+ * GET /map?seed=42&amp;rooms=300&amp;min=5&amp;max=15
+ * </pre>
+ *
+ * и отвечает картой в формате {@link MapFileWriter} (application/octet-stream),
+ * то есть строками битов или длин серий вместо boolean[][]. Тот же результат
+ * можно получить без сети через {@link #request(MapSpec)}.
+ *
+ * Размер комнат и суммарная площадь комнат (rooms * max * max) ограничены,
+ * комнаты разделяются способом {@link SeparationMode#FAST} с ограничением
+ * времени, поэтому один запрос не может занять всю кучу или поток пула
+ * надолго. Из-за этого карты сервиса отличаются от карт генератора с
+ * настройками по умолчанию для тех же параметров. Если время разделения
+ * вышло раньше, чем расставлены все комнаты, то карта зависела бы от
+ * нагрузки машины: такая генерация завершается {@link TimeoutException}
+ * (ответ 503), и ее результат не кешируется, поэтому для одних параметров
+ * сервис всегда отдает одну и ту же карту.
+ *
+ * Одинаковые запросы, которые пришли, пока карта еще генерируется, ждут одну
+ * и ту же генерацию. Готовые карты хранятся в LRU-кеше, размер которого
+ * ограничен суммарным количеством байт ответов.
+ *
+ * @author K1ta
+ */
+public class MapService implements AutoCloseable {
+
+    private final ExecutorService workers;  //пул, на котором генерируются карты
+    private final long cacheBytes;          //наибольший суммарный размер карт в кеше
+    private final int maxRooms;             //наибольшее количество комнат в запросе
+    private final int maxRoomSize;          //наибольший размер комнаты в запросе
+    private final long maxArea;             //наибольшая суммарная площадь комнат в запросе
+    private final long separationNanos;     //наибольшее время разделения комнат одной карты
+    private final ConcurrentHashMap<MapSpec, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+    private final LinkedHashMap<MapSpec, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true); //порядок обращений
+    private long cachedBytes;               //суммарный размер карт в кеше
+    private final AtomicLong hits = new AtomicLong();       //ответы из кеша
+    private final AtomicLong coalesced = new AtomicLong();  //запросы, присоединенные к идущей генерации
+    private final AtomicLong generated = new AtomicLong();  //сгенерированные карты
+    private HttpServer server;
+    private ExecutorService io;             //потоки HTTP-сервера: разбор запросов и запись ответов
+
+    /**
+     * Сервис на общем ForkJoinPool с кешем на 64 МБ
+     */
+    public MapService() {
+        this(ForkJoinPool.commonPool(), 64L << 20, 100000);
+    }
+
+    /**
+     *
+     * @param workers пул, на котором генерируются карты
+     * @param cacheBytes наибольший суммарный размер карт в кеше, в байтах
+     * @param maxRooms наибольшее количество комнат, которое можно запросить
+     */
+    public MapService(ExecutorService workers, long cacheBytes, int maxRooms) {
+        this(workers, cacheBytes, maxRooms, 64, 1L << 26, 2_000_000_000L);
+    }
+
+    /**
+     *
+     * @param workers пул, на котором генерируются карты
+     * @param cacheBytes наибольший суммарный размер карт в кеше, в байтах
+     * @param maxRooms наибольшее количество комнат, которое можно запросить
+     * @param maxRoomSize наибольший размер комнаты, который можно запросить
+     * @param maxArea наибольшая суммарная площадь комнат rooms * max * max
+     * @param separationNanos наибольшее время разделения комнат одной карты
+     */
+    public MapService(ExecutorService workers, long cacheBytes, int maxRooms, int maxRoomSize, long maxArea,
+            long separationNanos) {
+        if (cacheBytes < 0) {
+            throw new IllegalArgumentException("cacheBytes не может быть отрицательным: " + cacheBytes);
+        }
+        if (maxRoomSize < 1 || maxArea < 1 || separationNanos < 1) {
+            throw new IllegalArgumentException("Ограничения должны быть положительными: " + maxRoomSize + "/"
+                    + maxArea + "/" + separationNanos);
+        }
+        this.workers = workers;
+        this.cacheBytes = cacheBytes;
+        this.maxRooms = maxRooms;
+        this.maxRoomSize = maxRoomSize;
+        this.maxArea = maxArea;
+        this.separationNanos = separationNanos;
+    }
+
+    /**
+     * Запускает HTTP-сервер на loopback-адресе
+     *
+     * @param port порт; 0 - любой свободный
+     * @return порт, на котором принимаются запросы
+     * @throws IOException если порт занят
+     */
+    public synchronized int start(int port) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Сервис уже запущен");
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        server.createContext("/map", exchange -> handle(exchange, executor));
+        server.setExecutor(executor);
+        io = executor;
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Возвращает карту с параметрами spec в формате {@link MapFileWriter}: из
+     * кеша, из уже идущей генерации или из новой генерации на пуле
+     *
+     * @param spec параметры карты
+     * @return будущий ответ; завершается {@link TimeoutException}, если
+     * комнаты не успели расставить за отведенное время
+     */
+    public CompletableFuture<byte[]> request(MapSpec spec) {
+        check(spec);
+        byte[] cached;
+        synchronized (cache) {
+            cached = cache.get(spec);
+        }
+        if (cached != null) {
+            hits.incrementAndGet();
+            return CompletableFuture.completedFuture(cached);
+        }
+        boolean[] created = new boolean[1];
+        CompletableFuture<byte[]> future = inFlight.computeIfAbsent(spec, s -> {
+            created[0] = true;
+            return new CompletableFuture<>();
+        });
+        if (!created[0]) {
+            coalesced.incrementAndGet();
+            return future;
+        }
+        //карта могла попасть в кеш между проверкой кеша и computeIfAbsent
+        synchronized (cache) {
+            cached = cache.get(spec);
+        }
+        if (cached != null) {
+            inFlight.remove(spec);
+            hits.incrementAndGet();
+            future.complete(cached);
+            return future;
+        }
+        try {
+            workers.execute(() -> {
+                try {
+                    byte[] data = generate(spec);
+                    put(spec, data);
+                    //сначала кеш, потом удаление из inFlight, чтобы повторный
+                    //запрос не начал ту же генерацию заново
+                    inFlight.remove(spec);
+                    future.complete(data);
+                } catch (Throwable ex) {
+                    inFlight.remove(spec);
+                    future.completeExceptionally(ex);
+                }
+            });
+        } catch (RuntimeException ex) {
+            inFlight.remove(spec);
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    /**
+     * @return количество ответов из кеша
+     */
+    public long hits() {
+        return hits.get();
+    }
+
+    /**
+     * @return количество запросов, которые дождались чужой генерации
+     */
+    public long coalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return количество сгенерированных карт
+     */
+    public long generated() {
+        return generated.get();
+    }
+
+    /**
+     * @return суммарный размер карт в кеше
+     */
+    public long cachedBytes() {
+        synchronized (cache) {
+            return cachedBytes;
+        }
+    }
+
+    /**
+     * Останавливает HTTP-сервер и его потоки. Пул генерации не закрывается.
+     */
+    @Override
+    public synchronized void close() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+            io.shutdown();
+            io = null;
+        }
+    }
+
+    private void check(MapSpec spec) {
+        if (spec.NumberOfRooms < 1 || spec.NumberOfRooms > maxRooms) {
+            throw new IllegalArgumentException("Количество комнат должно быть от 1 до " + maxRooms + ": "
+                    + spec.NumberOfRooms);
+        }
+        if (spec.minSize < 1 || spec.minSize > spec.maxSize) {
+            throw new IllegalArgumentException("Неверные размеры комнат: " + spec.minSize + ".." + spec.maxSize);
+        }
+        if (spec.maxSize > maxRoomSize) {
+            throw new IllegalArgumentException("Размер комнаты должен быть не больше " + maxRoomSize + ": "
+                    + spec.maxSize);
+        }
+        //в double, чтобы произведение не переполнилось
+        if ((double) spec.NumberOfRooms * spec.maxSize * spec.maxSize > maxArea) {
+            throw new IllegalArgumentException("Площадь комнат rooms * max * max должна быть не больше " + maxArea);
+        }
+    }
+
+    private byte[] generate(MapSpec spec) throws IOException, TimeoutException {
+        MapGenerator generator = spec.generator();
+        //исходное разделение может идти сотни проходов, поэтому быстрое и с
+        //ограничением времени: комнаты, которые не успели разойтись, удаляются
+        generator.setSeparationMode(SeparationMode.FAST);
+        generator.setSeparationBudget(0, separationNanos);
+        generator.generateMap();
+        generated.incrementAndGet();
+        //какие комнаты успели расставить, зависит от нагрузки, а не от зерна,
+        //поэтому неполная карта не отдается и не кешируется
+        if (generator.getMetrics().roomsDropped > 0) {
+            throw new TimeoutException("Разделение комнат не уложилось в " + separationNanos / 1000000 + " мс");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new MapFileWriter(generator.getGrid(), spec.seed, generator.getRooms().size(), spec.minSize, spec.maxSize)
+                .write(Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    /**
+     * Кладет карту в кеш и вытесняет самые давние карты, пока суммарный
+     * размер больше cacheBytes. Карта больше всего кеша не кешируется.
+     */
+    private void put(MapSpec spec, byte[] data) {
+        if (data.length > cacheBytes) {
+            return;
+        }
+        synchronized (cache) {
+            byte[] old = cache.put(spec, data);
+            cachedBytes += data.length - (old == null ? 0 : old.length);
+            Iterator<Map.Entry<MapSpec, byte[]>> eldest = cache.entrySet().iterator();
+            while (cachedBytes > cacheBytes) {
+                cachedBytes -= eldest.next().getValue().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Обрабатывает GET /map. Поток HTTP-сервера не ждет генерацию: ответ
+     * отправляется, когда карта готова. Ответ пишется на потоках сервера, а
+     * не на потоке генерации, чтобы медленные клиенты не задерживали
+     * генерацию следующих карт.
+     */
+    private void handle(HttpExchange exchange, ExecutorService io) throws IOException {
+        MapSpec spec;
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, "Поддерживается только GET");
+                return;
+            }
+            spec = parse(exchange.getRequestURI().getRawQuery());
+            check(spec);
+        } catch (IllegalArgumentException ex) {
+            send(exchange, 400, ex.getMessage());
+            return;
+        }
+        request(spec).whenCompleteAsync((data, error) -> {
+            try {
+                if (error != null) {
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    if (cause instanceof TimeoutException) {
+                        send(exchange, 503, cause.getMessage());
+                    } else {
+                        send(exchange, 500, String.valueOf(cause));
+                    }
+                } else {
+                    exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                    exchange.sendResponseHeaders(200, data.length);
+                    try (OutputStream body = exchange.getResponseBody()) {
+                        body.write(data);
+                    }
+                }
+            } catch (IOException ex) {
+                //клиент закрыл соединение, ответ никому не нужен
+                exchange.close();
+            }
+        }, io);
+    }
+
+    /**
+     * Разбирает параметры запроса seed, rooms, min и max
+     */
+    private static MapSpec parse(String query) {
+        Long seed = null;
+        int rooms = -1;
+        int min = -1;
+        int max = -1;
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                String name = eq < 0 ? pair : pair.substring(0, eq);
+                String value = eq < 0 ? "" : pair.substring(eq + 1);
+                try {
+                    switch (name) {
+                        case "seed":
+                            seed = Long.parseLong(value);
+                            break;
+                        case "rooms":
+                            rooms = Integer.parseInt(value);
+                            break;
+                        case "min":
+                            min = Integer.parseInt(value);
+                            break;
+                        case "max":
+                            max = Integer.parseInt(value);
+                            break;
+                        default:
+                            break;
+                    }
+                } catch (NumberFormatException ex) {
+                    throw new IllegalArgumentException("Неверное значение параметра " + name + ": " + value);
+                }
+            }
+        }
+        if (seed == null || rooms < 0 || min < 0 || max < 0) {
+            throw new IllegalArgumentException("Нужны параметры seed, rooms, min и max");
+        }
+        return new MapSpec(seed, rooms, min, max);
+    }
+
+    private static void send(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Запускает сервис как отдельный процесс
+     *
+     * @param args порт (по умолчанию 8765), размер кеша в мегабайтах (по
+     * умолчанию 64), наибольший размер комнаты (по умолчанию 64) и
+     * наибольшая площадь комнат (по умолчанию 2^26)
+     * @throws IOException если порт занят
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8765;
+        long cacheMb = args.length > 1 ? Long.parseLong(args[1]) : 64;
+        int maxRoomSize = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        long maxArea = args.length > 3 ? Long.parseLong(args[3]) : 1L << 26;
+        MapService service = new MapService(ForkJoinPool.commonPool(), cacheMb << 20, 100000, maxRoomSize, maxArea,
+                2_000_000_000L);
+        port = service.start(port);
+        System.out.println("Сервис карт: http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + port + "/map");
+    }
+}
@@ -0,0 +1,58 @@
+package MapGenerator;
+
+/**
+ * Параметры генерации одной карты. Одинаковые параметры всегда дают
+ * одинаковую карту, поэтому объект можно использовать как ключ.
+ *
+ * @author K1ta
+ */
+public class MapSpec {
+
+    public final long seed;          //зерно генератора
+    public final int NumberOfRooms;  //количество комнат
+    public final int minSize;        //минимальный размер комнаты
+    public final int maxSize;        //максимальный размер комнаты
+
+    /**
+     *
+     * @param seed зерно генератора
+     * @param NumberOfRooms количество генерируемых комнат
+     * @param minSize минимальный размер одной комнаты
+     * @param maxSize максимальный размер одной комнаты
+     */
+    public MapSpec(long seed, int NumberOfRooms, int minSize, int maxSize) {
+        this.seed = seed;
+        this.NumberOfRooms = NumberOfRooms;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return новый генератор с этими параметрами
+     */
+    public MapGenerator generator() {
+        return new MapGenerator(seed, NumberOfRooms, minSize, maxSize);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || this.getClass() != o.getClass()) {
+            return false;
+        }
+        MapSpec s = (MapSpec) o;
+        return seed == s.seed && NumberOfRooms == s.NumberOfRooms && minSize == s.minSize && maxSize == s.maxSize;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = Long.hashCode(seed);
+        h = h * 31 + NumberOfRooms;
+        h = h * 31 + minSize;
+        return h * 31 + maxSize;
+    }
+
+    @Override
+    public String toString() {
+        return "seed:" + seed + " rooms:" + NumberOfRooms + " size:" + minSize + ".." + maxSize;
+    }
+}
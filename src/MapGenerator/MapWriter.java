@@ -0,0 +1,190 @@
+package MapGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Запись карты в текстовом формате: каждая ячейка - два символа ("0 " если
+ * ячейка проходима, "  " если нет), в конце строки - System.lineSeparator().
+ * Строки рисуются сразу в байты в один переиспользуемый буфер, который
+ * сбрасывается в поток или канал целиком, когда заполняется. Во время записи
+ * не создается ни одного объекта.
+ *
+ * @author K1ta
+ */
+public class MapWriter {
+
+    private static final int BLOCK = 1 << 16; //минимальный размер буфера
+
+    private final Grid grid;         //записываемая карта, null при построчной записи
+    private final int cols;          //количество столбцов карты
+    private final byte[] separator;  //перевод строки
+    private final byte[] block;      //буфер, в который рисуются строки
+    private int length;              //занятая часть буфера
+
+    /**
+     *
+     * @param grid карта для записи
+     */
+    public MapWriter(Grid grid) {
+        this(grid, grid.cols());
+    }
+
+    /**
+     * Запись без готовой карты: строки передаются по одной через
+     * {@link #writeRow(Grid, int, OutputStream)}, например из
+     * {@link ScanlineRasterizer.RowSink}
+     *
+     * @param cols количество столбцов карты
+     */
+    public MapWriter(int cols) {
+        this(null, cols);
+    }
+
+    private MapWriter(Grid grid, int cols) {
+        this.grid = grid;
+        this.cols = cols;
+        separator = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+        block = new byte[Math.max(BLOCK, rowLength())];
+    }
+
+    /**
+     * Записывает карту в поток. Поток не закрывается.
+     *
+     * @param out поток для записи
+     * @throws IOException если запись не удалась
+     */
+    public void write(OutputStream out) throws IOException {
+        length = 0;
+        for (int i = 0; i < grid.rows(); i++) {
+            if (length + rowLength() > block.length) {
+                out.write(block, 0, length);
+                length = 0;
+            }
+            render(grid, i);
+        }
+        flush(out);
+    }
+
+    /**
+     * Дописывает строку row карты source. Строка рисуется в буфер, а буфер
+     * сбрасывается в поток, когда заполняется, поэтому после последней строки
+     * нужно вызвать {@link #flush(OutputStream)}.
+     *
+     * @param source карта, в которой лежит строка
+     * @param row номер строки в source
+     * @param out поток для записи
+     * @throws IOException если запись не удалась
+     */
+    public void writeRow(Grid source, int row, OutputStream out) throws IOException {
+        if (source.cols() != cols) {
+            throw new IllegalArgumentException("Ширина строки " + source.cols() + " вместо " + cols);
+        }
+        if (length + rowLength() > block.length) {
+            out.write(block, 0, length);
+            length = 0;
+        }
+        render(source, row);
+    }
+
+    /**
+     * Записывает в поток строки, которые остались в буфере. Поток не
+     * закрывается.
+     *
+     * @param out поток для записи
+     * @throws IOException если запись не удалась
+     */
+    public void flush(OutputStream out) throws IOException {
+        out.write(block, 0, length);
+        out.flush();
+        length = 0;
+    }
+
+    /**
+     * Записывает карту в канал. Канал не закрывается.
+     *
+     * @param channel канал для записи
+     * @throws IOException если запись не удалась
+     */
+    public void write(WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(block);
+        length = 0;
+        for (int i = 0; i < grid.rows(); i++) {
+            if (length + rowLength() > block.length) {
+                flush(channel, buffer);
+            }
+            render(grid, i);
+        }
+        flush(channel, buffer);
+    }
+
+    /**
+     * Записывает карту в файл с именем name, перезаписывая его
+     *
+     * @param name имя файла
+     * @throws IOException если файл не удалось создать или записать
+     */
+    public void write(String name) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(name), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            write(channel);
+        }
+    }
+
+    private void flush(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        length = 0;
+    }
+
+    /**
+     * @return количество байт, которое занимает одна строка карты
+     */
+    private int rowLength() {
+        return cols * 2 + separator.length;
+    }
+
+    /**
+     * Рисует строку row карты source в конец буфера. Пустые и полностью
+     * заполненные слова рисуются без проверки отдельных битов.
+     *
+     * @param source карта
+     * @param row номер строки
+     */
+    private void render(Grid source, int row) {
+        int pos = length;
+        for (int w = 0; w < source.stride(); w++) {
+            long bits = source.word(row, w);
+            int n = Math.min(64, cols - w * 64);
+            if (bits == 0) {
+                for (int b = 0; b < n; b++) {
+                    block[pos++] = ' ';
+                    block[pos++] = ' ';
+                }
+            } else if (bits == -1L) {
+                for (int b = 0; b < n; b++) {
+                    block[pos++] = '0';
+                    block[pos++] = ' ';
+                }
+            } else {
+                for (int b = 0; b < n; b++) {
+                    block[pos++] = (bits & (1L << b)) != 0 ? (byte) '0' : (byte) ' ';
+                    block[pos++] = ' ';
+                }
+            }
+        }
+        for (byte c : separator) {
+            block[pos++] = c;
+        }
+        length = pos;
+    }
+}
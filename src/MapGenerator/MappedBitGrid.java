@@ -0,0 +1,124 @@
+package MapGenerator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Битовая карта в файле, отображенном в память. Слова лежат в файле так же,
+ * как в {@link BitGrid}: строка за строкой по stride слов long в порядке
+ * little-endian, без заголовка. Размер карты ограничен диском и адресным
+ * пространством, а не кучей, поэтому так можно сгенерировать карту, которая
+ * не помещается в -Xmx.
+ *
+ * Файл отображается кусками целых строк примерно по 1 ГБ, потому что один
+ * MappedByteBuffer не может быть больше 2 ГБ. Новый файл разреженный: место
+ * на диске занимают только страницы, в которые что-то записано.
+ *
+ * @author K1ta
+ */
+public class MappedBitGrid implements Grid, Closeable {
+
+    private static final long SEGMENT_BYTES = 1L << 30; //размер одного отображенного куска
+
+    private final int rows;               //количество строк
+    private final int cols;               //количество столбцов
+    private final int stride;             //количество слов в строке
+    private final int segmentRows;        //количество строк в одном куске
+    private final FileChannel channel;    //файл карты
+    private final MappedByteBuffer[] buffers; //отображенные куски файла
+    private final LongBuffer[] segments;  //те же куски как массивы слов
+
+    /**
+     * Создает пустую карту (все ячейки false) в файле file. Существующий
+     * файл перезаписывается.
+     *
+     * @param file файл карты
+     * @param rows количество строк
+     * @param cols количество столбцов
+     * @throws IOException если файл нельзя создать или отобразить
+     */
+    public MappedBitGrid(Path file, int rows, int cols) throws IOException {
+        if (rows < 0 || cols < 0) {
+            throw new IllegalArgumentException("Неверный размер карты: " + rows + "x" + cols);
+        }
+        this.rows = rows;
+        this.cols = cols;
+        stride = (cols + 63) >>> 6;
+        segmentRows = (int) Math.max(1, Math.min(rows, SEGMENT_BYTES / Math.max(1, stride * 8L)));
+        int count = rows == 0 ? 0 : (rows + segmentRows - 1) / segmentRows;
+        buffers = new MappedByteBuffer[count];
+        segments = new LongBuffer[count];
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long rowBytes = stride * 8L;
+            for (int k = 0; k < count; k++) {
+                int first = k * segmentRows;
+                int size = Math.min(segmentRows, rows - first);
+                //отображение за концом файла увеличивает файл, новые байты - нули
+                buffers[k] = channel.map(FileChannel.MapMode.READ_WRITE, first * rowBytes, size * rowBytes);
+                segments[k] = buffers[k].order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+            }
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    @Override
+    public int rows() {
+        return rows;
+    }
+
+    @Override
+    public int cols() {
+        return cols;
+    }
+
+    @Override
+    public int stride() {
+        return stride;
+    }
+
+    @Override
+    public long word(int row, int w) {
+        return segments[row / segmentRows].get((row % segmentRows) * stride + w);
+    }
+
+    @Override
+    public void setWord(int row, int w, long value) {
+        int tail = cols - w * 64;
+        if (tail < 64) {
+            value &= (1L << tail) - 1;
+        }
+        segments[row / segmentRows].put((row % segmentRows) * stride + w, value);
+    }
+
+    /**
+     * Записывает измененные страницы на диск
+     */
+    public void force() {
+        for (MappedByteBuffer buffer : buffers) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Записывает карту на диск и закрывает файл. Отображение освобождается
+     * только сборщиком мусора (в Java 11 нет явного unmap), поэтому после
+     * close карту читать нельзя, хотя исключения может и не быть.
+     *
+     * @throws IOException ошибка закрытия файла
+     */
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+}
@@ -0,0 +1,474 @@
+package MapGenerator;
+
+import java.util.Arrays;
+
+/**
+ * Граф комнат для поиска пути без обхода клеток карты. Вершины - комнаты,
+ * ребра - коридоры, вес ребра - длина коридора в клетках: длина
+ * проложенного пути или, для коридора буквой L, манхэттенское расстояние
+ * между центрами комнат. Граф хранится в формате CSR:
+ * соседи комнаты i - targets[offsets[i]] .. targets[offsets[i + 1] - 1] с
+ * весами weights[...].
+ *
+ * Для небольших карт (до ALL_PAIRS_LIMIT комнат) расстояния и первый шаг
+ * кратчайшего пути между всеми парами комнат считаются заранее, и запросы -
+ * это чтение из таблиц. Для больших карт заранее считаются расстояния от
+ * LANDMARKS опорных комнат, и запрос - поиск A* по графу комнат с оценкой
+ * ALT (разность расстояний до опорных комнат), которому обычно хватает
+ * небольшой части графа.
+ *
+ * Индекс клеток по квадратам 32x32 находит комнату, в которой лежит клетка
+ * карты, за несколько сравнений.
+ *
+ * @author K1ta
+ */
+public class NavigationGraph {
+
+    static final int ALL_PAIRS_LIMIT = 1024; //наибольшее количество комнат для таблиц всех пар
+    static final int LANDMARKS = 16;         //количество опорных комнат для больших карт
+    private static final int TILE_SHIFT = 5; //квадрат индекса клеток - 32x32 клетки
+    private static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    public final int[] offsets;  //начало списка соседей комнаты, n + 1 элементов
+    public final int[] targets;  //соседи комнат
+    public final int[] weights;  //длины коридоров до соседей
+    private final int n;         //количество комнат
+    private final int[] dist;    //расстояния между всеми парами или null
+    private final int[] next;    //первый шаг кратчайшего пути между всеми парами или null
+    private final int[] landmarks;    //опорные комнаты или null
+    private final int[] landmarkDist; //расстояния от опорных комнат, по n на комнату
+    private final int[] top;     //первая строка комнаты
+    private final int[] left;    //первый столбец комнаты
+    private final int[] bottom;  //строка после последней
+    private final int[] right;   //столбец после последнего
+    private final int rows;      //количество строк карты
+    private final int cols;      //количество столбцов карты
+    private final int tileCols;  //количество квадратов индекса по ширине
+    private final int[] tileOffsets; //начало списка комнат квадрата
+    private final int[] tileRooms;   //комнаты, которые задевают квадрат
+    private final ThreadLocal<Search> searches;
+
+    /**
+     * Строит граф по комнатам и коридорам готовой карты
+     *
+     * @param rooms комнаты в координатах карты
+     * @param edges коридоры
+     * @param lengths длины коридоров по ребрам edges (отрицательная - коридор
+     * буквой L) или null, если все коридоры буквой L
+     * @param rows количество строк карты
+     * @param cols количество столбцов карты
+     */
+    NavigationGraph(RoomStore rooms, EdgeList edges, int[] lengths, int rows, int cols) {
+        n = rooms.size();
+        this.rows = rows;
+        this.cols = cols;
+        offsets = new int[n + 1];
+        for (int k = 0; k < edges.size(); k++) {
+            offsets[edges.from(k) + 1]++;
+            offsets[edges.to(k) + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        targets = new int[offsets[n]];
+        weights = new int[offsets[n]];
+        int[] cursor = Arrays.copyOf(offsets, n);
+        for (int k = 0; k < edges.size(); k++) {
+            int a = edges.from(k);
+            int b = edges.to(k);
+            int w = lengths != null && lengths[k] >= 0 ? lengths[k]
+                    : Math.abs((int) rooms.x[a] - (int) rooms.x[b]) + Math.abs((int) rooms.y[a] - (int) rooms.y[b]);
+            targets[cursor[a]] = b;
+            weights[cursor[a]++] = w;
+            targets[cursor[b]] = a;
+            weights[cursor[b]++] = w;
+        }
+        top = new int[n];
+        left = new int[n];
+        bottom = new int[n];
+        right = new int[n];
+        for (int i = 0; i < n; i++) {
+            top[i] = (int) (rooms.y[i] - rooms.height[i] / 2.0);
+            left[i] = (int) (rooms.x[i] - rooms.width[i] / 2.0);
+            bottom[i] = top[i] + rooms.height[i];
+            right[i] = left[i] + rooms.width[i];
+        }
+        tileCols = (cols >>> TILE_SHIFT) + 1;
+        int tileRows = (rows >>> TILE_SHIFT) + 1;
+        tileOffsets = new int[tileCols * tileRows + 1];
+        //сначала считаем комнаты в квадратах, потом раскладываем их по спискам;
+        //комнаты без клеток (удаленные в редакторе) в индекс не попадают
+        for (int i = 0; i < n; i++) {
+            if (bottom[i] == top[i] || right[i] == left[i]) {
+                continue;
+            }
+            for (int tr = top[i] >>> TILE_SHIFT; tr <= (bottom[i] - 1) >>> TILE_SHIFT; tr++) {
+                for (int tc = left[i] >>> TILE_SHIFT; tc <= (right[i] - 1) >>> TILE_SHIFT; tc++) {
+                    tileOffsets[tr * tileCols + tc + 1]++;
+                }
+            }
+        }
+        for (int t = 0; t + 1 < tileOffsets.length; t++) {
+            tileOffsets[t + 1] += tileOffsets[t];
+        }
+        tileRooms = new int[tileOffsets[tileOffsets.length - 1]];
+        int[] fill = Arrays.copyOf(tileOffsets, tileOffsets.length - 1);
+        for (int i = 0; i < n; i++) {
+            if (bottom[i] == top[i] || right[i] == left[i]) {
+                continue;
+            }
+            for (int tr = top[i] >>> TILE_SHIFT; tr <= (bottom[i] - 1) >>> TILE_SHIFT; tr++) {
+                for (int tc = left[i] >>> TILE_SHIFT; tc <= (right[i] - 1) >>> TILE_SHIFT; tc++) {
+                    tileRooms[fill[tr * tileCols + tc]++] = i;
+                }
+            }
+        }
+        searches = ThreadLocal.withInitial(Search::new);
+        if (n <= ALL_PAIRS_LIMIT) {
+            dist = new int[n * n];
+            next = new int[n * n];
+            Search search = searches.get();
+            for (int s = 0; s < n; s++) {
+                search.dijkstra(s);
+                search.store(s, dist, next);
+            }
+            landmarks = null;
+            landmarkDist = null;
+        } else {
+            dist = null;
+            next = null;
+            int k = Math.min(LANDMARKS, n);
+            landmarks = new int[k];
+            landmarkDist = new int[k * n];
+            selectLandmarks();
+        }
+    }
+
+    /**
+     * Выбирает опорные комнаты по очереди, каждую как можно дальше от уже
+     * выбранных: первая - самая дальняя от комнаты 0
+     */
+    private void selectLandmarks() {
+        Search search = searches.get();
+        int[] nearest = new int[n]; //расстояние до ближайшей выбранной опорной комнаты
+        search.dijkstra(0);
+        int farthest = 0;
+        for (int v = 0; v < n; v++) {
+            if (search.dist(v) != UNREACHABLE && search.dist(v) > search.dist(farthest)) {
+                farthest = v;
+            }
+        }
+        Arrays.fill(nearest, UNREACHABLE);
+        for (int l = 0; l < landmarks.length; l++) {
+            landmarks[l] = farthest;
+            search.dijkstra(farthest);
+            int best = -1;
+            for (int v = 0; v < n; v++) {
+                int d = search.dist(v);
+                landmarkDist[l * n + v] = d;
+                if (d < nearest[v]) {
+                    nearest[v] = d;
+                }
+                //следующая опорная комната - самая дальняя от уже выбранных,
+                //недостижимые комнаты не выбираются
+                if (nearest[v] != UNREACHABLE && (best < 0 || nearest[v] > nearest[best])) {
+                    best = v;
+                }
+            }
+            farthest = best;
+        }
+    }
+
+    /**
+     * @return количество комнат
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * @return true если расстояния между всеми парами комнат посчитаны
+     * заранее
+     */
+    public boolean hasAllPairs() {
+        return dist != null;
+    }
+
+    /**
+     * Длина кратчайшего пути между комнатами по коридорам
+     *
+     * @param a первая комната
+     * @param b вторая комната
+     * @return длина пути в клетках или -1, если пути нет
+     */
+    public int distance(int a, int b) {
+        check(a);
+        check(b);
+        int d;
+        if (dist != null) {
+            d = dist[a * n + b];
+        } else {
+            Search search = searches.get();
+            search.astar(a, b);
+            d = search.dist(b);
+        }
+        return d == UNREACHABLE ? -1 : d;
+    }
+
+    /**
+     * Нижняя оценка длины пути между комнатами. Для небольших карт - точная
+     * длина, для больших - оценка по опорным комнатам без поиска.
+     *
+     * @param a первая комната
+     * @param b вторая комната
+     * @return оценка длины пути в клетках
+     */
+    public int lowerBound(int a, int b) {
+        check(a);
+        check(b);
+        if (dist != null) {
+            return dist[a * n + b] == UNREACHABLE ? 0 : dist[a * n + b];
+        }
+        return estimate(a, b);
+    }
+
+    /**
+     * @param a комната, из которой идет путь
+     * @param b комната, в которую идет путь
+     * @return следующая после a комната кратчайшего пути, b если a = b, или
+     * -1 если пути нет
+     */
+    public int nextHop(int a, int b) {
+        check(a);
+        check(b);
+        if (next != null) {
+            return next[a * n + b];
+        }
+        int[] path = path(a, b);
+        return path == null ? -1 : path[Math.min(1, path.length - 1)];
+    }
+
+    /**
+     * @param a комната, из которой идет путь
+     * @param b комната, в которую идет путь
+     * @return комнаты кратчайшего пути от a до b включительно или null, если
+     * пути нет
+     */
+    public int[] path(int a, int b) {
+        check(a);
+        check(b);
+        if (next != null) {
+            if (next[a * n + b] < 0) {
+                return null;
+            }
+            int length = 1;
+            for (int v = a; v != b; v = next[v * n + b]) {
+                length++;
+            }
+            int[] path = new int[length];
+            path[0] = a;
+            for (int i = 1; i < length; i++) {
+                path[i] = next[path[i - 1] * n + b];
+            }
+            return path;
+        }
+        Search search = searches.get();
+        search.astar(a, b);
+        if (search.dist(b) == UNREACHABLE) {
+            return null;
+        }
+        int length = 1;
+        for (int v = b; v != a; v = search.from[v]) {
+            length++;
+        }
+        int[] path = new int[length];
+        for (int v = b, i = length - 1; i >= 0; v = search.from[v], i--) {
+            path[i] = v;
+        }
+        return path;
+    }
+
+    /**
+     * @param row строка карты
+     * @param col столбец карты
+     * @return комната, в которой лежит клетка, или -1, если клетка не лежит
+     * ни в одной комнате (коридор, стена или клетка вне карты)
+     */
+    public int roomAt(int row, int col) {
+        if (row < 0 || row >= rows || col < 0 || col >= cols) {
+            return -1;
+        }
+        int tile = (row >>> TILE_SHIFT) * tileCols + (col >>> TILE_SHIFT);
+        for (int k = tileOffsets[tile]; k < tileOffsets[tile + 1]; k++) {
+            int i = tileRooms[k];
+            if (row >= top[i] && row < bottom[i] && col >= left[i] && col < right[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Оценка ALT: по неравенству треугольника путь от a до b не короче
+     * разности расстояний от любой опорной комнаты до a и до b
+     */
+    private int estimate(int a, int b) {
+        int best = 0;
+        for (int l = 0; l < landmarks.length; l++) {
+            int da = landmarkDist[l * n + a];
+            int db = landmarkDist[l * n + b];
+            if (da != UNREACHABLE && db != UNREACHABLE) {
+                best = Math.max(best, Math.abs(da - db));
+            }
+        }
+        return best;
+    }
+
+    private void check(int room) {
+        if (room < 0 || room >= n) {
+            throw new IndexOutOfBoundsException("Комната " + room + " из " + n);
+        }
+    }
+
+    /**
+     * Рабочие массивы поиска по графу, по одному набору на поток. Отметка
+     * stamp позволяет начинать новый поиск без очистки массивов.
+     */
+    private final class Search {
+
+        final int[] dist = new int[n];   //расстояние от начала поиска
+        final int[] from = new int[n];   //предыдущая комната пути
+        final int[] seen = new int[n];   //номер поиска, в котором dist задан
+        final int[] order = new int[n];  //комнаты в порядке закрытия
+        int closed;                      //количество закрытых комнат
+        int stamp;
+        long[] heap = new long[64];      //расстояние с оценкой в старших битах, комната в младших
+        int size;
+
+        int dist(int v) {
+            return seen[v] == stamp ? dist[v] : UNREACHABLE;
+        }
+
+        void reset(int source) {
+            if (++stamp == 0) {
+                Arrays.fill(seen, 0);
+                stamp = 1;
+            }
+            size = 0;
+            closed = 0;
+            seen[source] = stamp;
+            dist[source] = 0;
+            from[source] = -1;
+        }
+
+        /**
+         * Кратчайшие пути от source до всех комнат
+         */
+        void dijkstra(int source) {
+            reset(source);
+            push(source);
+            while (size > 0) {
+                long key = pop();
+                int v = (int) key;
+                if ((key >>> 32) > dist[v]) {
+                    continue;
+                }
+                order[closed++] = v;
+                relax(v, -1);
+            }
+        }
+
+        /**
+         * Кратчайший путь от a до b поиском A* с оценкой по опорным комнатам
+         */
+        void astar(int a, int b) {
+            reset(a);
+            push((long) estimate(a, b) << 32 | a);
+            while (size > 0) {
+                long key = pop();
+                int v = (int) key;
+                if ((key >>> 32) > (long) dist[v] + estimate(v, b)) {
+                    continue;
+                }
+                if (v == b) {
+                    return;
+                }
+                relax(v, b);
+            }
+        }
+
+        /**
+         * Обновляет расстояния до соседей v; goal - цель A* или -1 для
+         * поиска без оценки
+         */
+        private void relax(int v, int goal) {
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                int u = targets[e];
+                int d = dist[v] + weights[e];
+                if (d < dist(u)) {
+                    seen[u] = stamp;
+                    dist[u] = d;
+                    from[u] = v;
+                    push((long) (goal < 0 ? d : d + estimate(u, goal)) << 32 | u);
+                }
+            }
+        }
+
+        /**
+         * Записывает расстояния и первые шаги путей от source после
+         * dijkstra(source) в строку source таблиц
+         */
+        void store(int source, int[] table, int[] hops) {
+            int base = source * n;
+            Arrays.fill(table, base, base + n, UNREACHABLE);
+            Arrays.fill(hops, base, base + n, -1);
+            hops[base + source] = source;
+            for (int i = 0; i < closed; i++) {
+                int v = order[i];
+                table[base + v] = dist[v];
+                if (v != source) {
+                    //предыдущая комната закрыта раньше, ее первый шаг уже известен
+                    hops[base + v] = from[v] == source ? v : hops[base + from[v]];
+                }
+            }
+        }
+
+        private void push(long key) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent] <= key) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = key;
+        }
+
+        private long pop() {
+            long first = heap[0];
+            long key = heap[--size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && heap[child + 1] < heap[child]) {
+                    child++;
+                }
+                if (key <= heap[child]) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = key;
+            return first;
+        }
+    }
+}
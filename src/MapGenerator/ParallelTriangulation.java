@@ -0,0 +1,463 @@
+package MapGenerator;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Триангуляция Делоне методом "разделяй и властвуй" (Гибас-Столфи) на
+ * структуре quad-edge. Точки сортируются по X (при равенстве - по Y), делятся
+ * пополам, половины триангулируются независимо и сшиваются снизу вверх.
+ * Большие половины строятся параллельно на ForkJoinPool, маленькие - обычной
+ * рекурсией в одном потоке.
+ *
+ * Вместе с точками триангулируются углы суперпозиции (как в
+ * {@link Triangulation}), а ребра к углам отбрасываются, поэтому набор ребер
+ * совпадает с набором ребер {@link Triangulation} (кроме случаев, когда
+ * четыре точки лежат на одной окружности и годится любая диагональ).
+ * Результат не зависит от количества потоков. Предикаты точные, как в
+ * {@link Triangulation} (см. {@link Predicates}).
+ *
+ * Каждое ребро quad-edge - это четыре направленных ребра с номерами от
+ * 4q до 4q + 3: ребро, его поворот, обратное ребро и обратный поворот.
+ * Для каждого направленного ребра хранится следующее ребро против часовой
+ * стрелки вокруг начала (onext) и начальная вершина.
+ *
+ * @author K1ta
+ */
+public class ParallelTriangulation {
+
+    private static final int SEQUENTIAL = 4096; //части меньше этого размера строятся в одном потоке
+
+    private final double[] x; //координаты вершин по оси X
+    private final double[] y; //координаты вершин по оси Y
+    private final long[] fx;  //координаты вершин по оси X в полуклетках
+    private final long[] fy;  //координаты вершин по оси Y в полуклетках
+    private final int n;      //количество заданных точек
+    private final ForkJoinPool pool;
+    private int[] sorted;     //номера различных вершин, отсортированные по X, затем по Y
+    private Mesh mesh;        //готовая триангуляция
+
+    /**
+     * Триангуляция на общем ForkJoinPool
+     *
+     * @param px координаты точек по оси X
+     * @param py координаты точек по оси Y
+     * @param left левая граница суперпозиции
+     * @param bot нижняя граница суперпозиции
+     * @param right правая граница суперпозиции
+     * @param top верхняя граница суперпозиции
+     */
+    public ParallelTriangulation(double[] px, double[] py, double left, double bot, double right, double top) {
+        this(px, py, left, bot, right, top, ForkJoinPool.commonPool());
+    }
+
+    /**
+     *
+     * @param px координаты точек по оси X
+     * @param py координаты точек по оси Y
+     * @param left левая граница суперпозиции
+     * @param bot нижняя граница суперпозиции
+     * @param right правая граница суперпозиции
+     * @param top верхняя граница суперпозиции
+     * @param pool пул, на котором строятся части
+     */
+    public ParallelTriangulation(double[] px, double[] py, double left, double bot, double right, double top,
+            ForkJoinPool pool) {
+        n = px.length;
+        x = Arrays.copyOf(px, n + 4);
+        y = Arrays.copyOf(py, n + 4);
+        //углы суперпозиции в том же порядке, что и в Triangulation
+        x[n] = left;
+        y[n] = bot;
+        x[n + 1] = right;
+        y[n + 1] = bot;
+        x[n + 2] = right;
+        y[n + 2] = top;
+        x[n + 3] = left;
+        y[n + 3] = top;
+        fx = new long[n + 4];
+        fy = new long[n + 4];
+        for (int i = 0; i < n + 4; i++) {
+            fx[i] = Predicates.fixed(x[i]);
+            fy[i] = Predicates.fixed(y[i]);
+        }
+        this.pool = pool;
+    }
+
+    /**
+     * Строит триангуляцию
+     */
+    public void build() {
+        sorted = sortedVertices();
+        mesh = pool.invoke(new Part(0, sorted.length)).mesh;
+    }
+
+    /**
+     * Возвращает все ребра триангуляции, кроме ребер к углам суперпозиции.
+     * Каждое ребро quad-edge встречается один раз, поэтому проверка на
+     * повторы не нужна.
+     *
+     * @return список ребер с длинами
+     */
+    public EdgeList edges() {
+        EdgeList edges = new EdgeList(3 * n);
+        for (int e = 0; e < mesh.quads * 4; e += 4) {
+            int a = mesh.org[e];
+            int b = mesh.org[e + 2];
+            if (a < 0 || a >= n || b >= n) {
+                continue;
+            }
+            edges.add(a, b, Math.sqrt((x[a] - x[b]) * (x[a] - x[b]) + (y[a] - y[b]) * (y[a] - y[b])));
+        }
+        return edges;
+    }
+
+    /**
+     * Сортирует вершины по X, затем по Y (сортировка слиянием по номерам) и
+     * убирает совпадающие, как {@link Triangulation} не вставляет совпадающие
+     * точки
+     */
+    private int[] sortedVertices() {
+        int size = n + 4;
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        int[] buffer = new int[size];
+        for (int width = 1; width < size; width *= 2) {
+            for (int lo = 0; lo < size - width; lo += width * 2) {
+                int mid = lo + width;
+                int hi = Math.min(lo + width * 2, size);
+                int i = lo;
+                int j = mid;
+                int k = lo;
+                while (i < mid && j < hi) {
+                    buffer[k++] = less(order[j], order[i]) ? order[j++] : order[i++];
+                }
+                while (i < mid) {
+                    buffer[k++] = order[i++];
+                }
+                while (j < hi) {
+                    buffer[k++] = order[j++];
+                }
+                System.arraycopy(buffer, lo, order, lo, hi - lo);
+            }
+        }
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            int p = order[i];
+            if (unique == 0 || fx[p] != fx[order[unique - 1]] || fy[p] != fy[order[unique - 1]]) {
+                order[unique++] = p;
+            }
+        }
+        return Arrays.copyOf(order, unique);
+    }
+
+    private boolean less(int a, int b) {
+        return fx[a] < fx[b] || (fx[a] == fx[b] && fy[a] < fy[b]);
+    }
+
+    /**
+     * Ориентация тройки точек: больше нуля, если a, b, c идут против часовой
+     * стрелки
+     */
+    private long orient(int a, int b, int c) {
+        return Predicates.orient(fx[a], fy[a], fx[b], fy[b], fx[c], fy[c]);
+    }
+
+    /**
+     * Проверяет, попадает ли точка p строго внутрь окружности, описанной
+     * вокруг треугольника a, b, c (против часовой стрелки)
+     */
+    private boolean inCircle(int a, int b, int c, int p) {
+        return Predicates.inCircle(fx[a], fy[a], fx[b], fy[b], fx[c], fy[c], fx[p], fy[p]);
+    }
+
+    private static int rot(int e) {
+        return (e & ~3) | ((e + 1) & 3);
+    }
+
+    private static int rotInv(int e) {
+        return (e & ~3) | ((e + 3) & 3);
+    }
+
+    private static int sym(int e) {
+        return e ^ 2;
+    }
+
+    /**
+     * Упаковывает два ребра в одно число, чтобы рекурсия не создавала объекты
+     */
+    private static long pack(int first, int second) {
+        return ((long) first << 32) | (second & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Триангуляция части sorted[lo..hi). Результат - два ребра оболочки: ребро
+     * против часовой стрелки из самой левой вершины и ребро по часовой
+     * стрелке из самой правой.
+     */
+    private class Part extends RecursiveTask<Part> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int lo;
+        private final int hi;
+        Mesh mesh;
+        int leftEdge;
+        int rightEdge;
+
+        Part(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected Part compute() {
+            long result;
+            if (hi - lo <= SEQUENTIAL) {
+                mesh = new Mesh(3 * (hi - lo));
+                result = mesh.build(lo, hi);
+            } else {
+                int mid = (lo + hi) >>> 1;
+                Part left = new Part(lo, mid);
+                Part right = new Part(mid, hi);
+                left.fork();
+                right.compute();
+                left.join();
+                //правая часть копируется после левой, поэтому номера ее ребер сдвигаются
+                int shift = left.mesh.quads * 4;
+                mesh = new Mesh(left.mesh, right.mesh);
+                result = mesh.merge(left.leftEdge, left.rightEdge, right.leftEdge + shift, right.rightEdge + shift);
+            }
+            leftEdge = (int) (result >>> 32);
+            rightEdge = (int) result;
+            return this;
+        }
+    }
+
+    /**
+     * Хранилище ребер quad-edge. Удаленные ребра попадают в список свободных
+     * и используются снова, поэтому ребер в хранилище не больше, чем в
+     * планарном графе на тех же вершинах.
+     */
+    private class Mesh {
+
+        int[] next;     //onext для каждого направленного ребра
+        int[] org;      //начальная вершина направленного ребра, -1 у удаленных
+        int quads;      //количество выделенных ребер quad-edge
+        int[] free;     //номера удаленных ребер quad-edge
+        int freeCount;
+
+        Mesh(int capacity) {
+            next = new int[Math.max(capacity, 4) * 4];
+            org = new int[next.length];
+            free = new int[16];
+        }
+
+        /**
+         * Объединяет две триангуляции в одном хранилище: ребра right идут
+         * после ребер left
+         */
+        Mesh(Mesh left, Mesh right) {
+            int shift = left.quads * 4;
+            int size = shift + right.quads * 4;
+            //место для ребер, которые добавит сшивание
+            next = Arrays.copyOf(left.next, size + size / 4);
+            org = Arrays.copyOf(left.org, next.length);
+            for (int e = 0; e < right.quads * 4; e++) {
+                next[shift + e] = right.next[e] + shift;
+                org[shift + e] = right.org[e];
+            }
+            quads = left.quads + right.quads;
+            freeCount = left.freeCount + right.freeCount;
+            free = Arrays.copyOf(left.free, Math.max(16, freeCount));
+            for (int i = 0; i < right.freeCount; i++) {
+                free[left.freeCount + i] = right.free[i] + left.quads;
+            }
+        }
+
+        int dest(int e) {
+            return org[sym(e)];
+        }
+
+        int oprev(int e) {
+            return rot(next[rot(e)]);
+        }
+
+        int lnext(int e) {
+            return rot(next[rotInv(e)]);
+        }
+
+        int rprev(int e) {
+            return next[sym(e)];
+        }
+
+        boolean rightOf(int p, int e) {
+            return orient(p, dest(e), org[e]) > 0;
+        }
+
+        boolean leftOf(int p, int e) {
+            return orient(p, org[e], dest(e)) > 0;
+        }
+
+        /**
+         * Создает отдельное ребро от вершины a к вершине b
+         */
+        int makeEdge(int a, int b) {
+            int q;
+            if (freeCount > 0) {
+                q = free[--freeCount];
+            } else {
+                if (quads * 4 == next.length) {
+                    next = Arrays.copyOf(next, next.length * 2);
+                    org = Arrays.copyOf(org, next.length);
+                }
+                q = quads++;
+            }
+            int e = q * 4;
+            next[e] = e;
+            next[e + 1] = e + 3;
+            next[e + 2] = e + 2;
+            next[e + 3] = e + 1;
+            org[e] = a;
+            org[e + 1] = 0;
+            org[e + 2] = b;
+            org[e + 3] = 0;
+            return e;
+        }
+
+        /**
+         * Операция splice Гибаса-Столфи: соединяет или разъединяет кольца
+         * onext ребер a и b
+         */
+        void splice(int a, int b) {
+            int alpha = rot(next[a]);
+            int beta = rot(next[b]);
+            int t = next[a];
+            next[a] = next[b];
+            next[b] = t;
+            t = next[alpha];
+            next[alpha] = next[beta];
+            next[beta] = t;
+        }
+
+        /**
+         * Добавляет ребро от конца ребра a к началу ребра b
+         */
+        int connect(int a, int b) {
+            int e = makeEdge(dest(a), org[b]);
+            splice(e, lnext(a));
+            splice(sym(e), b);
+            return e;
+        }
+
+        void delete(int e) {
+            splice(e, oprev(e));
+            splice(sym(e), oprev(sym(e)));
+            int q = e >>> 2;
+            org[q * 4] = -1;
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, freeCount * 2);
+            }
+            free[freeCount++] = q;
+        }
+
+        /**
+         * Последовательная триангуляция части sorted[lo..hi), в которой не
+         * меньше двух вершин
+         */
+        long build(int lo, int hi) {
+            if (hi - lo == 2) {
+                int a = makeEdge(sorted[lo], sorted[lo + 1]);
+                return pack(a, sym(a));
+            }
+            if (hi - lo == 3) {
+                int p0 = sorted[lo];
+                int p1 = sorted[lo + 1];
+                int p2 = sorted[lo + 2];
+                int a = makeEdge(p0, p1);
+                int b = makeEdge(p1, p2);
+                splice(sym(a), b);
+                long o = orient(p0, p1, p2);
+                if (o > 0) {
+                    connect(b, a);
+                    return pack(a, sym(b));
+                } else if (o < 0) {
+                    int c = connect(b, a);
+                    return pack(sym(c), c);
+                }
+                //три точки на одной прямой
+                return pack(a, sym(b));
+            }
+            int mid = (lo + hi) >>> 1;
+            long left = build(lo, mid);
+            long right = build(mid, hi);
+            return merge((int) (left >>> 32), (int) left, (int) (right >>> 32), (int) right);
+        }
+
+        /**
+         * Сшивает левую и правую триангуляции: находит нижнюю общую
+         * касательную и поднимается по ней вверх, добавляя ребра между
+         * половинами и удаляя ребра, которые нарушают условие Делоне
+         *
+         * @param ldo ребро против часовой стрелки из самой левой вершины левой части
+         * @param ldi ребро по часовой стрелке из самой правой вершины левой части
+         * @param rdi ребро против часовой стрелки из самой левой вершины правой части
+         * @param rdo ребро по часовой стрелке из самой правой вершины правой части
+         * @return ребра оболочки объединенной триангуляции
+         */
+        long merge(int ldo, int ldi, int rdi, int rdo) {
+            //нижняя общая касательная
+            while (true) {
+                if (leftOf(org[rdi], ldi)) {
+                    ldi = lnext(ldi);
+                } else if (rightOf(org[ldi], rdi)) {
+                    rdi = rprev(rdi);
+                } else {
+                    break;
+                }
+            }
+            int basel = connect(sym(rdi), ldi);
+            if (org[ldi] == org[ldo]) {
+                ldo = sym(basel);
+            }
+            if (org[rdi] == org[rdo]) {
+                rdo = basel;
+            }
+            while (true) {
+                //кандидат слева и удаление ребер, которые он нарушает
+                int lcand = next[sym(basel)];
+                if (rightOf(dest(lcand), basel)) {
+                    while (inCircle(dest(basel), org[basel], dest(lcand), dest(next[lcand]))) {
+                        int t = next[lcand];
+                        delete(lcand);
+                        lcand = t;
+                    }
+                }
+                //кандидат справа
+                int rcand = oprev(basel);
+                if (rightOf(dest(rcand), basel)) {
+                    while (inCircle(dest(basel), org[basel], dest(rcand), dest(oprev(rcand)))) {
+                        int t = oprev(rcand);
+                        delete(rcand);
+                        rcand = t;
+                    }
+                }
+                boolean leftValid = rightOf(dest(lcand), basel);
+                boolean rightValid = rightOf(dest(rcand), basel);
+                //верхняя общая касательная достигнута
+                if (!leftValid && !rightValid) {
+                    break;
+                }
+                if (!leftValid || (rightValid && inCircle(dest(lcand), org[lcand], org[rcand], dest(rcand)))) {
+                    basel = connect(rcand, sym(basel));
+                } else {
+                    basel = connect(sym(basel), sym(lcand));
+                }
+            }
+            return pack(ldo, rdo);
+        }
+    }
+}
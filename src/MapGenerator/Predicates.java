@@ -0,0 +1,117 @@
+package MapGenerator;
+
+/**
+ * Точные геометрические предикаты для триангуляций. Центры комнат всегда
+ * целые или полуцелые, поэтому координаты хранятся в целых полуклетках
+ * (удвоенных единицах) в long, и знаки ориентации и теста окружности
+ * считаются без ошибок округления.
+ *
+ * Ориентация считается сразу в long: разности координат меньше 2^30, поэтому
+ * произведения помещаются в long. Тест окружности сначала считается в double
+ * с оценкой погрешности (Shewchuk, "Adaptive Precision Floating-Point
+ * Arithmetic and Fast Robust Geometric Predicates"), и только если результат
+ * слишком близок к нулю - точно, 128-битными произведениями через
+ * Math.multiplyHigh.
+ *
+ * @author K1ta
+ */
+final class Predicates {
+
+    /**
+     * Наибольшая по модулю координата в полуклетках. Тогда разности координат
+     * меньше 2^30, а определитель теста окружности меньше 2^124.
+     */
+    static final long LIMIT = 1L << 29;
+
+    //оценка относительной погрешности теста окружности в double
+    private static final double EPSILON = 0x1p-53;
+    private static final double IN_CIRCLE_BOUND = (10 + 96 * EPSILON) * EPSILON;
+
+    private Predicates() {
+    }
+
+    /**
+     * Переводит координату в полуклетки. Координаты, которые не кратны
+     * половине клетки, округляются до ближайшей половины.
+     *
+     * @param v координата в клетках
+     * @return координата в полуклетках
+     */
+    static long fixed(double v) {
+        double doubled = Math.rint(v * 2);
+        if (!(Math.abs(doubled) <= LIMIT)) {
+            throw new IllegalArgumentException("Координата " + v + " вне диапазона ±" + (LIMIT / 2));
+        }
+        return (long) doubled;
+    }
+
+    /**
+     * @return больше нуля, если точки a, b, c идут против часовой стрелки,
+     * меньше нуля - если по часовой, 0 - если лежат на одной прямой
+     */
+    static long orient(long ax, long ay, long bx, long by, long cx, long cy) {
+        return (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+    }
+
+    /**
+     * Проверяет, лежит ли точка p строго внутри окружности, описанной вокруг
+     * треугольника a, b, c, вершины которого идут против часовой стрелки
+     *
+     * @return true если точка лежит внутри окружности
+     */
+    static boolean inCircle(long ax, long ay, long bx, long by, long cx, long cy, long px, long py) {
+        long adx = ax - px;
+        long ady = ay - py;
+        long bdx = bx - px;
+        long bdy = by - py;
+        long cdx = cx - px;
+        long cdy = cy - py;
+        //разности меньше 2^30, поэтому в double они точные
+        double bdxcdy = (double) bdx * cdy;
+        double cdxbdy = (double) cdx * bdy;
+        double cdxady = (double) cdx * ady;
+        double adxcdy = (double) adx * cdy;
+        double adxbdy = (double) adx * bdy;
+        double bdxady = (double) bdx * ady;
+        double alift = (double) adx * adx + (double) ady * ady;
+        double blift = (double) bdx * bdx + (double) bdy * bdy;
+        double clift = (double) cdx * cdx + (double) cdy * cdy;
+        double det = alift * (bdxcdy - cdxbdy) + blift * (cdxady - adxcdy) + clift * (adxbdy - bdxady);
+        double permanent = (Math.abs(bdxcdy) + Math.abs(cdxbdy)) * alift
+                + (Math.abs(cdxady) + Math.abs(adxcdy)) * blift
+                + (Math.abs(adxbdy) + Math.abs(bdxady)) * clift;
+        double bound = IN_CIRCLE_BOUND * permanent;
+        if (det > bound) {
+            return true;
+        }
+        if (-det > bound) {
+            return false;
+        }
+        return exactInCircle(adx, ady, bdx, bdy, cdx, cdy);
+    }
+
+    /**
+     * Точный знак определителя теста окружности. Квадраты расстояний и миноры
+     * помещаются в long (меньше 2^62), их произведения считаются как 128-битные
+     * числа (старшая половина - multiplyHigh, младшая - обычное умножение).
+     */
+    private static boolean exactInCircle(long adx, long ady, long bdx, long bdy, long cdx, long cdy) {
+        long alift = adx * adx + ady * ady;
+        long blift = bdx * bdx + bdy * bdy;
+        long clift = cdx * cdx + cdy * cdy;
+        long bc = bdx * cdy - cdx * bdy;
+        long ca = cdx * ady - adx * cdy;
+        long ab = adx * bdy - bdx * ady;
+        long hi = Math.multiplyHigh(alift, bc);
+        long lo = alift * bc;
+        long termLo = blift * ca;
+        long sum = lo + termLo;
+        hi += Math.multiplyHigh(blift, ca) + (Long.compareUnsigned(sum, lo) < 0 ? 1 : 0);
+        lo = sum;
+        termLo = clift * ab;
+        sum = lo + termLo;
+        hi += Math.multiplyHigh(clift, ab) + (Long.compareUnsigned(sum, lo) < 0 ? 1 : 0);
+        lo = sum;
+        return hi > 0 || (hi == 0 && lo != 0);
+    }
+}
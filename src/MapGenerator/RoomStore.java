@@ -0,0 +1,171 @@
+package MapGenerator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Комнаты в виде параллельных массивов: центр, размер и смещение комнаты i
+ * лежат в ячейках i массивов x, y, width, height, offsetX, offsetY. Этапы
+ * генерации читают и меняют массивы напрямую, поэтому разделение комнат не
+ * создает объектов. {@link Room} и {@link Vector2} создаются только для кода
+ * снаружи генератора.
+ *
+ * @author K1ta
+ */
+public class RoomStore {
+
+    double[] x;        //центр комнаты по оси X
+    double[] y;        //центр комнаты по оси Y
+    int[] width;       //размер комнаты по оси X
+    int[] height;      //размер комнаты по оси Y
+    double[] offsetX;  //смещение комнаты за текущий проход разделения по оси X
+    double[] offsetY;  //смещение комнаты за текущий проход разделения по оси Y
+    private int size;  //количество комнат
+
+    public RoomStore() {
+        this(16);
+    }
+
+    /**
+     *
+     * @param capacity начальная вместимость
+     */
+    public RoomStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        x = new double[capacity];
+        y = new double[capacity];
+        width = new int[capacity];
+        height = new int[capacity];
+        offsetX = new double[capacity];
+        offsetY = new double[capacity];
+    }
+
+    /**
+     * Добавляет комнату с нулевым смещением
+     *
+     * @param cx центр по оси X
+     * @param cy центр по оси Y
+     * @param w размер по оси X
+     * @param h размер по оси Y
+     * @return номер комнаты
+     */
+    public int add(double cx, double cy, int w, int h) {
+        if (size == x.length) {
+            int capacity = size * 2;
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            width = Arrays.copyOf(width, capacity);
+            height = Arrays.copyOf(height, capacity);
+            offsetX = Arrays.copyOf(offsetX, capacity);
+            offsetY = Arrays.copyOf(offsetY, capacity);
+        }
+        x[size] = cx;
+        y[size] = cy;
+        width[size] = w;
+        height[size] = h;
+        offsetX[size] = 0;
+        offsetY[size] = 0;
+        return size++;
+    }
+
+    /**
+     * @return количество комнат
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Проверяет, пересекает ли комната i комнату j с учетом зазора в две
+     * клетки, так же как {@link Room#isOverlapping(Room)}
+     *
+     * @param i номер первой комнаты
+     * @param j номер второй комнаты
+     * @return true если пересекает
+     */
+    public boolean isOverlapping(int i, int j) {
+        return !((y[i] + (height[i] / 2.0) + 2 < y[j] - (height[j] / 2.0))
+                || (y[i] - (height[i] / 2.0) - 2 > y[j] + (height[j] / 2.0))
+                || (x[i] + (width[i] / 2.0) + 2 < x[j] - (width[j] / 2.0))
+                || (x[i] - (width[i] / 2.0) - 2 > x[j] + (width[j] / 2.0)));
+    }
+
+    /**
+     * Сдвигает комнату на ее смещение, приведенное к 2 по каждой оси, и
+     * обнуляет смещение, так же как {@link Room#applyOffset()}
+     *
+     * @param i номер комнаты
+     */
+    public void applyOffset(int i) {
+        if (offsetX[i] > 0) {
+            x[i] += 2;
+        } else if (offsetX[i] < 0) {
+            x[i] -= 2;
+        }
+        if (offsetY[i] > 0) {
+            y[i] += 2;
+        } else if (offsetY[i] < 0) {
+            y[i] -= 2;
+        }
+        offsetX[i] = 0;
+        offsetY[i] = 0;
+    }
+
+    /**
+     * Оставляет только комнаты, для которых keep[i] равно true, сохраняя их
+     * порядок
+     *
+     * @param keep какие комнаты оставить
+     */
+    public void retain(boolean[] keep) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (keep[i]) {
+                x[kept] = x[i];
+                y[kept] = y[i];
+                width[kept] = width[i];
+                height[kept] = height[i];
+                offsetX[kept] = offsetX[i];
+                offsetY[kept] = offsetY[i];
+                kept++;
+            }
+        }
+        size = kept;
+    }
+
+    /**
+     * @return центры комнат по оси X, массив длины size()
+     */
+    double[] xs() {
+        return x.length == size ? x : Arrays.copyOf(x, size);
+    }
+
+    /**
+     * @return центры комнат по оси Y, массив длины size()
+     */
+    double[] ys() {
+        return y.length == size ? y : Arrays.copyOf(y, size);
+    }
+
+    /**
+     * @param i номер комнаты
+     * @return копия комнаты i в виде объекта
+     */
+    public Room get(int i) {
+        Room room = new Room(new Vector2(x[i], y[i]), new Vector2(width[i], height[i]));
+        room.offset.x = offsetX[i];
+        room.offset.y = offsetY[i];
+        return room;
+    }
+
+    /**
+     * @return копии всех комнат в виде объектов
+     */
+    public ArrayList<Room> toList() {
+        ArrayList<Room> rooms = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            rooms.add(get(i));
+        }
+        return rooms;
+    }
+}
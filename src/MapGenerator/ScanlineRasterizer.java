@@ -0,0 +1,145 @@
+package MapGenerator;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Построчная растеризация карты без полной карты в памяти. Комнаты и оба
+ * отрезка каждого коридора - прямоугольники со сторонами вдоль осей, поэтому
+ * карту можно собрать сверху вниз: прямоугольники сортируются по первой
+ * строке, и для каждой строки заполняются только те из них, которые ее
+ * пересекают. Готовая строка сразу передается в {@link RowSink}, поэтому
+ * вывод начинается до того, как растеризована вся карта, а памяти нужно
+ * O(ширина + количество прямоугольников).
+ *
+ * @author K1ta
+ */
+public class ScanlineRasterizer {
+
+    private final int rows;       //количество строк карты
+    private final int cols;       //количество столбцов карты
+    private int[] top;            //первая строка прямоугольника
+    private int[] bottom;         //строка после последней
+    private int[] left;           //первый столбец
+    private int[] right;          //столбец после последнего
+    private int size;             //количество прямоугольников
+
+    /**
+     * Получатель готовых строк карты
+     */
+    public interface RowSink {
+
+        /**
+         * @param row номер строки
+         * @param line карта из одной строки (строка 0) с ячейками строки row.
+         * Объект переиспользуется для следующей строки, поэтому хранить его
+         * после возврата нельзя.
+         * @throws IOException ошибка записи; останавливает растеризацию
+         */
+        void row(int row, Grid line) throws IOException;
+    }
+
+    /**
+     *
+     * @param rows количество строк карты
+     * @param cols количество столбцов карты
+     * @param capacity ожидаемое количество прямоугольников
+     */
+    public ScanlineRasterizer(int rows, int cols, int capacity) {
+        if (rows < 0 || cols < 0) {
+            throw new IllegalArgumentException("Неверный размер карты: " + rows + "x" + cols);
+        }
+        this.rows = rows;
+        this.cols = cols;
+        capacity = Math.max(capacity, 16);
+        top = new int[capacity];
+        bottom = new int[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+    }
+
+    /**
+     * @return количество строк карты
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * @return количество столбцов карты
+     */
+    public int cols() {
+        return cols;
+    }
+
+    /**
+     * Добавляет прямоугольник проходимых ячеек. Пустые прямоугольники
+     * пропускаются.
+     *
+     * @param rowFrom первая строка
+     * @param rowTo строка после последней
+     * @param colFrom первый столбец
+     * @param colTo столбец после последнего
+     */
+    public void add(int rowFrom, int rowTo, int colFrom, int colTo) {
+        if (rowFrom >= rowTo || colFrom >= colTo) {
+            return;
+        }
+        if (rowFrom < 0 || rowTo > rows || colFrom < 0 || colTo > cols) {
+            throw new IndexOutOfBoundsException("(" + rowFrom + ".." + rowTo + ";" + colFrom + ".." + colTo + ")");
+        }
+        if (size == top.length) {
+            int capacity = size * 2;
+            top = Arrays.copyOf(top, capacity);
+            bottom = Arrays.copyOf(bottom, capacity);
+            left = Arrays.copyOf(left, capacity);
+            right = Arrays.copyOf(right, capacity);
+        }
+        top[size] = rowFrom;
+        bottom[size] = rowTo;
+        left[size] = colFrom;
+        right[size] = colTo;
+        size++;
+    }
+
+    /**
+     * Растеризует карту сверху вниз и передает строки в sink по порядку, от
+     * строки 0 до rows - 1, включая пустые
+     *
+     * @param sink получатель строк
+     * @throws IOException если получатель не смог записать строку
+     */
+    public void stream(RowSink sink) throws IOException {
+        //порядок прямоугольников по первой строке: ключ - строка в старших
+        //битах и номер в младших, поэтому сортировка обходится без объектов
+        long[] order = new long[size];
+        for (int k = 0; k < size; k++) {
+            order[k] = (long) top[k] << 32 | k;
+        }
+        Arrays.sort(order);
+        int[] active = new int[16]; //прямоугольники, которые пересекают текущую строку
+        int activeSize = 0;
+        int next = 0;
+        BitGrid line = new BitGrid(1, cols);
+        for (int row = 0; row < rows; row++) {
+            while (next < size && (int) (order[next] >>> 32) == row) {
+                if (activeSize == active.length) {
+                    active = Arrays.copyOf(active, activeSize * 2);
+                }
+                active[activeSize++] = (int) order[next++];
+            }
+            line.clearRow(0, 0, cols);
+            //заполняем строку и сразу убираем прямоугольники, которые на ней кончаются
+            int kept = 0;
+            for (int a = 0; a < activeSize; a++) {
+                int k = active[a];
+                line.fillRow(0, left[k], right[k]);
+                if (bottom[k] > row + 1) {
+                    active[kept++] = k;
+                }
+            }
+            activeSize = kept;
+            sink.row(row, line);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package MapGenerator;
+
+/**
+ * Способ разделения комнат в {@link MapGenerator#separateRooms()}
+ *
+ * @author K1ta
+ */
+public enum SeparationMode {
+    /**
+     * Исходный способ: за проход каждая комната сдвигается не больше чем на 2
+     * клетки по каждой оси в сторону от всех комнат, которые она пересекает.
+     * Плотно сгенерированным комнатам нужны сотни проходов.
+     */
+    CLASSIC,
+    /**
+     * То же, что и {@link #CLASSIC}, но смещения комнат за проход считаются
+     * параллельно на ForkJoinPool. Результат совпадает с {@link #CLASSIC} для
+     * того же зерна.
+     */
+    PARALLEL,
+    /**
+     * Комнаты расставляются по одной, от центра кучи к краям: каждая комната
+     * движется в случайном направлении и перепрыгивает через уже расставленные
+     * комнаты, пока не окажется от них на расстоянии, которое требует
+     * {@link Room#isOverlapping(Room)}. Каждая комната ставится один раз,
+     * поэтому разделение занимает один проход вместо сотен.
+     */
+    FAST
+}
@@ -0,0 +1,206 @@
+package MapGenerator;
+
+import java.util.Arrays;
+
+/**
+ * Равномерная сетка (пространственный хеш) для быстрого поиска соседних
+ * комнат. Плоскость делится на квадратные ячейки со стороной cellSize, каждая
+ * комната хранится в ячейке, в которую попадает ее центр. Если сторона ячейки
+ * не меньше максимального расстояния, на котором комнаты еще пересекаются, то
+ * пересекающиеся комнаты всегда лежат в одной или в соседних ячейках.
+ *
+ * Ячейки хранятся в хеш-таблице с открытой адресацией по ключу (cx, cy), а
+ * элементы одной ячейки - в двусвязном списке на массивах next/prev, поэтому
+ * перемещение элемента между ячейками не требует выделения памяти.
+ *
+ * @author K1ta
+ */
+public class SpatialHash {
+
+    private final double cellSize; //сторона ячейки
+    private long[] keys;      //ключи ячеек в хеш-таблице
+    private int[] heads;      //первый элемент ячейки или -1
+    private boolean[] filled; //занят ли слот хеш-таблицы
+    private int cells;        //количество занятых слотов
+    private final int[] next; //следующий элемент в той же ячейке
+    private final int[] prev; //предыдущий элемент в той же ячейке
+    private final int[] slot; //слот ячейки, в которой лежит элемент
+    private final long[] itemKey; //ключ ячейки, в которой лежит элемент
+
+    /**
+     *
+     * @param cellSize сторона ячейки
+     * @param capacity количество элементов (элементы нумеруются от 0 до
+     * capacity - 1)
+     */
+    public SpatialHash(double cellSize, int capacity) {
+        this.cellSize = cellSize;
+        int size = 16;
+        while (size < capacity * 2) {
+            size <<= 1;
+        }
+        keys = new long[size];
+        heads = new int[size];
+        filled = new boolean[size];
+        next = new int[capacity];
+        prev = new int[capacity];
+        slot = new int[capacity];
+        itemKey = new long[capacity];
+        Arrays.fill(slot, -1);
+    }
+
+    /**
+     * @param x координата по оси X
+     * @return номер ячейки по оси X
+     */
+    public int cellX(double x) {
+        return (int) Math.floor(x / cellSize);
+    }
+
+    /**
+     * @param y координата по оси Y
+     * @return номер ячейки по оси Y
+     */
+    public int cellY(double y) {
+        return (int) Math.floor(y / cellSize);
+    }
+
+    /**
+     * Добавляет элемент item в ячейку, в которую попадает точка (x, y)
+     *
+     * @param item номер элемента
+     * @param x координата по оси X
+     * @param y координата по оси Y
+     */
+    public void insert(int item, double x, double y) {
+        long key = key(cellX(x), cellY(y));
+        link(item, key, findOrCreate(key));
+    }
+
+    /**
+     * Переносит элемент item в ячейку точки (x, y), если он сменил ячейку
+     *
+     * @param item номер элемента
+     * @param x новая координата по оси X
+     * @param y новая координата по оси Y
+     */
+    public void update(int item, double x, double y) {
+        long key = key(cellX(x), cellY(y));
+        if (slot[item] != -1 && itemKey[item] == key) {
+            return;
+        }
+        if (slot[item] != -1) {
+            unlink(item);
+        }
+        link(item, key, findOrCreate(key));
+    }
+
+    /**
+     * @param cx номер ячейки по оси X
+     * @param cy номер ячейки по оси Y
+     * @return первый элемент ячейки (cx, cy) или -1, если ячейка пуста
+     */
+    public int first(int cx, int cy) {
+        int s = find(key(cx, cy));
+        return s == -1 ? -1 : heads[s];
+    }
+
+    /**
+     * @param item номер элемента
+     * @return следующий элемент в той же ячейке или -1
+     */
+    public int next(int item) {
+        return next[item];
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        for (int s = hash(key) & mask; filled[s]; s = (s + 1) & mask) {
+            if (keys[s] == key) {
+                return s;
+            }
+        }
+        return -1;
+    }
+
+    private int findOrCreate(long key) {
+        int mask = keys.length - 1;
+        int s = hash(key) & mask;
+        while (filled[s]) {
+            if (keys[s] == key) {
+                return s;
+            }
+            s = (s + 1) & mask;
+        }
+        //пустые ячейки не удаляются, поэтому таблица только растет
+        if ((cells + 1) * 2 > keys.length) {
+            grow();
+            return findOrCreate(key);
+        }
+        filled[s] = true;
+        keys[s] = key;
+        heads[s] = -1;
+        cells++;
+        return s;
+    }
+
+    /**
+     * Увеличивает хеш-таблицу вдвое и переносит в нее все ячейки. Слоты ячеек
+     * при этом меняются, поэтому слоты элементов пересчитываются.
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldHeads = heads;
+        boolean[] oldFilled = filled;
+        keys = new long[oldKeys.length * 2];
+        heads = new int[oldKeys.length * 2];
+        filled = new boolean[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldFilled[i]) {
+                int s = hash(oldKeys[i]) & mask;
+                while (filled[s]) {
+                    s = (s + 1) & mask;
+                }
+                filled[s] = true;
+                keys[s] = oldKeys[i];
+                heads[s] = oldHeads[i];
+                for (int item = heads[s]; item != -1; item = next[item]) {
+                    slot[item] = s;
+                }
+            }
+        }
+    }
+
+    private void link(int item, long key, int s) {
+        itemKey[item] = key;
+        slot[item] = s;
+        prev[item] = -1;
+        next[item] = heads[s];
+        if (heads[s] != -1) {
+            prev[heads[s]] = item;
+        }
+        heads[s] = item;
+    }
+
+    private void unlink(int item) {
+        if (prev[item] != -1) {
+            next[prev[item]] = next[item];
+        } else {
+            heads[slot[item]] = next[item];
+        }
+        if (next[item] != -1) {
+            prev[next[item]] = prev[item];
+        }
+        slot[item] = -1;
+    }
+}
@@ -0,0 +1,20 @@
+package MapGenerator;
+
+/**
+ * Этапы генерации карты в порядке их выполнения в
+ * {@link MapGenerator#generateMap()}. При построчной растеризации
+ * ({@link MapGenerator#streamMap}) вместо последних двух этапов выполняется
+ * STREAM_MAP.
+ *
+ * @author K1ta
+ */
+public enum Stage {
+    GENERATE_ROOMS,
+    SEPARATE_ROOMS,
+    CREATE_TRIANGULATION,
+    GENERATE_CORRIDORS,
+    CREATE_MAP,
+    CREATE_CORRIDORS,
+    CREATE_ROOMS,
+    STREAM_MAP
+}
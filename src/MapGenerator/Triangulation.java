@@ -0,0 +1,463 @@
+package MapGenerator;
+
+import java.util.Arrays;
+
+/**
+ * Инкрементальная триангуляция Делоне (алгоритм Бойера-Ватсона) на структуре
+ * смежности треугольников. Каждый треугольник хранит три вершины в порядке
+ * против часовой стрелки и три соседа: сосед k лежит за ребром, идущим от
+ * вершины k к вершине k + 1.
+ *
+ * Для каждой новой точки треугольник, в который она попадает, ищется обходом
+ * от последнего созданного треугольника, а полость (треугольники, в описанную
+ * окружность которых попадает точка) - обходом в ширину по соседям. Точки
+ * вставляются в порядке BRIO: случайные раунды растущего размера, внутри
+ * раунда точки упорядочены по кривой Гильберта. Благодаря этому обход почти
+ * всегда короткий и ожидаемое время построения O(n log n).
+ *
+ * Вершины с номерами от 0 до n - 1 - это заданные точки, вершины n..n + 3 -
+ * углы суперпозиции (квадрата, который накрывает все точки).
+ *
+ * Ориентация и тест окружности считаются точно (см. {@link Predicates}) по
+ * координатам в полуклетках, поэтому точки на одной окружности, которые
+ * часто встречаются у комнат на сетке, не портят контур полости. Координаты,
+ * не кратные половине клетки, округляются до нее.
+ *
+ * @author K1ta
+ */
+public class Triangulation {
+
+    private final double[] x; //координаты вершин по оси X
+    private final double[] y; //координаты вершин по оси Y
+    private final long[] fx;  //координаты вершин по оси X в полуклетках
+    private final long[] fy;  //координаты вершин по оси Y в полуклетках
+    private final int n;      //количество заданных точек
+    private int[] v;          //вершины треугольников, по три на треугольник
+    private int[] adj;        //соседи треугольников, по три на треугольник
+    private boolean[] dead;   //удален ли треугольник
+    private int count;        //количество выделенных треугольников
+    private int[] free;       //номера удаленных треугольников для повторного использования
+    private int freeCount;
+    private int last;         //треугольник, с которого начинается обход
+    private int[] mark;       //метки обхода полости
+    private int stamp;
+    private int[] queue;      //очередь обхода полости
+    private int[] edgeA;      //начала ребер контура полости
+    private int[] edgeB;      //концы ребер контура полости
+    private int[] edgeOut;    //внешние соседи ребер контура полости
+    private final int[] byStart; //новый треугольник по первой вершине ребра контура
+    private long created;     //счетчик созданных треугольников
+    private long destroyed;   //счетчик удаленных треугольников
+    private long cavityTotal; //суммарный размер полостей
+    private int maxCavity;    //наибольшая полость
+
+    /**
+     *
+     * @param px координаты точек по оси X
+     * @param py координаты точек по оси Y
+     * @param left левая граница суперпозиции
+     * @param bot нижняя граница суперпозиции
+     * @param right правая граница суперпозиции
+     * @param top верхняя граница суперпозиции
+     */
+    public Triangulation(double[] px, double[] py, double left, double bot, double right, double top) {
+        n = px.length;
+        x = Arrays.copyOf(px, n + 4);
+        y = Arrays.copyOf(py, n + 4);
+        //углы суперпозиции против часовой стрелки
+        x[n] = left;
+        y[n] = bot;
+        x[n + 1] = right;
+        y[n + 1] = bot;
+        x[n + 2] = right;
+        y[n + 2] = top;
+        x[n + 3] = left;
+        y[n + 3] = top;
+        fx = new long[n + 4];
+        fy = new long[n + 4];
+        for (int i = 0; i < n + 4; i++) {
+            fx[i] = Predicates.fixed(x[i]);
+            fy[i] = Predicates.fixed(y[i]);
+        }
+        int capacity = 2 * n + 8;
+        v = new int[capacity * 3];
+        adj = new int[capacity * 3];
+        dead = new boolean[capacity];
+        mark = new int[capacity];
+        free = new int[16];
+        queue = new int[16];
+        edgeA = new int[16];
+        edgeB = new int[16];
+        edgeOut = new int[16];
+        byStart = new int[n + 4];
+        //два треугольника суперпозиции с общей диагональю (right, bot) - (left, top)
+        int t1 = allocate(n, n + 1, n + 3);
+        int t2 = allocate(n + 1, n + 2, n + 3);
+        adj[t1 * 3] = -1;
+        adj[t1 * 3 + 1] = t2;
+        adj[t1 * 3 + 2] = -1;
+        adj[t2 * 3] = -1;
+        adj[t2 * 3 + 1] = -1;
+        adj[t2 * 3 + 2] = t1;
+        last = t1;
+    }
+
+    /**
+     * Вставляет все точки в триангуляцию в порядке BRIO
+     */
+    public void build() {
+        for (int p : insertionOrder(x, y, n)) {
+            insert(p);
+        }
+    }
+
+    /**
+     * @return количество выделенных треугольников, включая удаленные
+     */
+    public int capacity() {
+        return count;
+    }
+
+    /**
+     * @param t номер треугольника
+     * @return true если треугольник не удален
+     */
+    public boolean isAlive(int t) {
+        return !dead[t];
+    }
+
+    /**
+     * @param t номер треугольника
+     * @param k номер вершины от 0 до 2
+     * @return номер k-й вершины треугольника t
+     */
+    public int vertex(int t, int k) {
+        return v[t * 3 + k];
+    }
+
+    /**
+     * @param t номер треугольника
+     * @param k номер ребра от 0 до 2
+     * @return соседний треугольник за ребром k или -1
+     */
+    public int neighbour(int t, int k) {
+        return adj[t * 3 + k];
+    }
+
+    /**
+     * @return сколько треугольников было создано за все время построения
+     */
+    public long created() {
+        return created;
+    }
+
+    /**
+     * @return сколько треугольников было удалено за все время построения
+     */
+    public long destroyed() {
+        return destroyed;
+    }
+
+    /**
+     * @return суммарное количество треугольников во всех полостях
+     */
+    public long cavityTotal() {
+        return cavityTotal;
+    }
+
+    /**
+     * @return количество треугольников в самой большой полости
+     */
+    public int maxCavity() {
+        return maxCavity;
+    }
+
+    /**
+     * @return количество заданных точек (вершины суперпозиции имеют номера не
+     * меньше этого числа)
+     */
+    public int points() {
+        return n;
+    }
+
+    /**
+     * Собирает ребра триангуляции между заданными точками. Каждое ребро
+     * записывается как пара номеров (меньший, больший), повторы отсекаются
+     * множеством ключей меньший &lt;&lt; 32 | больший. Ребра, у которых хотя бы
+     * одна вершина - угол суперпозиции, отбрасываются по номеру вершины.
+     *
+     * @return список ребер с длинами
+     */
+    public EdgeList edges() {
+        EdgeList edges = new EdgeList(3 * n);
+        LongHashSet seen = new LongHashSet(3 * n);
+        for (int t = 0; t < count; t++) {
+            if (dead[t]) {
+                continue;
+            }
+            for (int k = 0; k < 3; k++) {
+                int a = v[t * 3 + k];
+                int b = v[t * 3 + (k + 1) % 3];
+                if (a >= n || b >= n) {
+                    continue;
+                }
+                long key = ((long) Math.min(a, b) << 32) | Math.max(a, b);
+                if (seen.add(key)) {
+                    edges.add(a, b, Math.sqrt((x[a] - x[b]) * (x[a] - x[b]) + (y[a] - y[b]) * (y[a] - y[b])));
+                }
+            }
+        }
+        return edges;
+    }
+
+    /**
+     * Вставляет точку p: находит треугольник, в который она попадает, удаляет
+     * все треугольники, в описанную окружность которых она попадает, и
+     * соединяет контур получившейся полости с точкой p.
+     *
+     * @param p номер точки
+     */
+    private void insert(int p) {
+        int t0 = locate(p);
+        for (int k = 0; k < 3; k++) {
+            //совпадающие точки не вставляются, иначе получатся вырожденные треугольники
+            if (fx[v[t0 * 3 + k]] == fx[p] && fy[v[t0 * 3 + k]] == fy[p]) {
+                return;
+            }
+        }
+        //обход полости в ширину
+        stamp++;
+        int head = 0;
+        int tail = 0;
+        int edges = 0;
+        queue[tail++] = t0;
+        mark[t0] = stamp;
+        while (head < tail) {
+            int t = queue[head++];
+            for (int k = 0; k < 3; k++) {
+                int o = adj[t * 3 + k];
+                if (o != -1 && mark[o] == stamp) {
+                    continue;
+                }
+                if (o != -1 && inCircle(o, p)) {
+                    mark[o] = stamp;
+                    if (tail == queue.length) {
+                        queue = Arrays.copyOf(queue, tail * 2);
+                    }
+                    queue[tail++] = o;
+                } else {
+                    //ребро контура полости
+                    if (edges == edgeA.length) {
+                        edgeA = Arrays.copyOf(edgeA, edges * 2);
+                        edgeB = Arrays.copyOf(edgeB, edges * 2);
+                        edgeOut = Arrays.copyOf(edgeOut, edges * 2);
+                    }
+                    edgeA[edges] = v[t * 3 + k];
+                    edgeB[edges] = v[t * 3 + (k + 1) % 3];
+                    edgeOut[edges] = o;
+                    edges++;
+                }
+            }
+        }
+        cavityTotal += tail;
+        maxCavity = Math.max(maxCavity, tail);
+        //удаление треугольников полости
+        for (int i = 0; i < tail; i++) {
+            release(queue[i]);
+        }
+        //новые треугольники из ребер контура и точки p
+        for (int i = 0; i < edges; i++) {
+            int t = allocate(edgeA[i], edgeB[i], p);
+            byStart[edgeA[i]] = t;
+            int o = edgeOut[i];
+            adj[t * 3] = o;
+            if (o != -1) {
+                for (int k = 0; k < 3; k++) {
+                    if (v[o * 3 + k] == edgeB[i]) {
+                        adj[o * 3 + k] = t;
+                        break;
+                    }
+                }
+            }
+        }
+        //соседние новые треугольники делят ребро, идущее к точке p
+        for (int i = 0; i < edges; i++) {
+            int t = byStart[edgeA[i]];
+            int s = byStart[edgeB[i]];
+            adj[t * 3 + 1] = s;
+            adj[s * 3 + 2] = t;
+        }
+        last = byStart[edgeA[0]];
+    }
+
+    /**
+     * Ищет треугольник, содержащий точку p, обходом от треугольника last: пока
+     * точка лежит справа от какого-либо ребра текущего треугольника, переходит
+     * к соседу за этим ребром.
+     *
+     * @param p номер точки
+     * @return треугольник, содержащий точку p
+     */
+    private int locate(int p) {
+        int t = last;
+        int step = 0;
+        boolean moved = true;
+        while (moved) {
+            moved = false;
+            //начальное ребро меняется, чтобы обход не зацикливался
+            for (int i = 0; i < 3; i++) {
+                int k = (i + step) % 3;
+                int a = v[t * 3 + k];
+                int b = v[t * 3 + (k + 1) % 3];
+                if (orient(a, b, p) < 0) {
+                    t = adj[t * 3 + k];
+                    moved = true;
+                    step++;
+                    break;
+                }
+            }
+        }
+        return t;
+    }
+
+    /**
+     * @return знак площади треугольника (a, b, c): больше нуля, если обход
+     * против часовой стрелки
+     */
+    private long orient(int a, int b, int c) {
+        return Predicates.orient(fx[a], fy[a], fx[b], fy[b], fx[c], fy[c]);
+    }
+
+    /**
+     * Проверяет, попадает ли точка p строго внутрь окружности, описанной
+     * вокруг треугольника t
+     *
+     * @param t номер треугольника
+     * @param p номер точки
+     * @return true если точка лежит внутри описанной окружности
+     */
+    private boolean inCircle(int t, int p) {
+        int a = v[t * 3];
+        int b = v[t * 3 + 1];
+        int c = v[t * 3 + 2];
+        return Predicates.inCircle(fx[a], fy[a], fx[b], fy[b], fx[c], fy[c], fx[p], fy[p]);
+    }
+
+    private int allocate(int a, int b, int c) {
+        int t;
+        if (freeCount > 0) {
+            t = free[--freeCount];
+        } else {
+            if (count == dead.length) {
+                int capacity = count * 2;
+                v = Arrays.copyOf(v, capacity * 3);
+                adj = Arrays.copyOf(adj, capacity * 3);
+                dead = Arrays.copyOf(dead, capacity);
+                mark = Arrays.copyOf(mark, capacity);
+            }
+            t = count++;
+        }
+        v[t * 3] = a;
+        v[t * 3 + 1] = b;
+        v[t * 3 + 2] = c;
+        dead[t] = false;
+        created++;
+        return t;
+    }
+
+    private void release(int t) {
+        dead[t] = true;
+        destroyed++;
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, freeCount * 2);
+        }
+        free[freeCount++] = t;
+    }
+
+    /**
+     * Строит порядок вставки BRIO. Точка попадает в раунд r с вероятностью
+     * 2^-(r+1), раунды вставляются от самого маленького к самому большому, а
+     * внутри раунда точки сортируются по кривой Гильберта. Выбор раунда
+     * зависит только от номера точки, поэтому порядок детерминирован.
+     *
+     * @param x координаты точек по оси X
+     * @param y координаты точек по оси Y
+     * @param n количество точек (первые n элементов x и y)
+     * @return номера точек в порядке вставки
+     */
+    static int[] insertionOrder(double[] x, double[] y, int n) {
+        final int rounds = 32;
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            minX = Math.min(minX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxX = Math.max(maxX, x[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        double scale = 65535 / Math.max(Math.max(maxX - minX, maxY - minY), 1);
+        int[] round = new int[n];
+        int[] start = new int[rounds + 1];
+        for (int i = 0; i < n; i++) {
+            //большие раунды идут в конце, поэтому номер раунда инвертируется
+            round[i] = rounds - 1 - Math.min(Long.numberOfTrailingZeros(mix(i)), rounds - 1);
+            start[round[i] + 1]++;
+        }
+        for (int r = 0; r < rounds; r++) {
+            start[r + 1] += start[r];
+        }
+        long[] keys = new long[n];
+        int[] fill = Arrays.copyOf(start, rounds);
+        for (int i = 0; i < n; i++) {
+            int hx = (int) ((x[i] - minX) * scale);
+            int hy = (int) ((y[i] - minY) * scale);
+            keys[fill[round[i]]++] = (hilbert(hx, hy) << 32) | i;
+        }
+        int[] order = new int[n];
+        for (int r = 0; r < rounds; r++) {
+            Arrays.sort(keys, start[r], start[r + 1]);
+        }
+        for (int i = 0; i < n; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+
+    /**
+     * @param hx координата по оси X от 0 до 65535
+     * @param hy координата по оси Y от 0 до 65535
+     * @return номер точки на кривой Гильберта порядка 16
+     */
+    private static long hilbert(int hx, int hy) {
+        final int side = 1 << 16;
+        long d = 0;
+        for (int s = side / 2; s > 0; s /= 2) {
+            int rx = (hx & s) > 0 ? 1 : 0;
+            int ry = (hy & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            //поворот квадранта
+            if (ry == 0) {
+                if (rx == 1) {
+                    hx = side - 1 - hx;
+                    hy = side - 1 - hy;
+                }
+                int t = hx;
+                hx = hy;
+                hy = t;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Перемешивает биты числа (SplitMix64), чтобы из номера точки получить
+     * псевдослучайное число
+     */
+    private static long mix(long z) {
+        z = (z + 0x9E3779B97F4A7C15L) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}